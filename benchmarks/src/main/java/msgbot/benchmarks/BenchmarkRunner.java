@@ -0,0 +1,37 @@
+package msgbot.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks with the allocation profiler, so every result reports its allocation rate next to ops/s.
+ * Takes the usual JMH options, e.g. "ParsingBenchmark" to run a single class or "-p messages=100000"
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+
+        CommandLineOptions options = new CommandLineOptions(args);
+        Runner runner = new Runner(new OptionsBuilder()
+                .parent(options)
+                .addProfiler(GCProfiler.class)
+                .build());
+
+        // Runner.run ignores the options that only list what could be run
+        if(options.shouldHelp()) {
+            options.showHelp();
+        } else if(options.shouldList()) {
+            runner.list();
+        } else if(options.shouldListProfilers()) {
+            options.listProfilers();
+        } else {
+            runner.run();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package msgbot.benchmarks;
+
+import org.jfree.chart.JFreeChart;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating each chart of the report, on its own and together with rasterizing it
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChartBenchmark {
+
+    private static final MethodHandle CREATE_IMAGE =
+            Internals.method("ChartCreator", "createImage", JFreeChart.class);
+
+    @Param({"10000"})
+    public int messages;
+
+    @Param({"hourlyMessagesChart", "dailyMessagesChart", "monthlyMessagesChart", "wordFrequencyChart",
+            "messagesSendChart", "wordsSendChart", "charsSendChart", "spamMessagesSendChart", "spamWordsSendChart",
+            "spamCharsSendChart", "averageMessageChart", "reactionsChart", "actionsMadeChart"})
+    public String chart;
+
+    private Object creator;
+    private MethodHandle createChart;
+
+    @Setup(Level.Trial)
+    public void createCreator() throws Throwable {
+
+        File directory = Fixtures.createDirectory();
+        Object analyser = Fixtures.analyse(Fixtures.writeExport(directory, messages, 0.05));
+        Object statistics = Internals.get(analyser, "statistics");
+
+        creator = Internals.constructor("ChartCreator", Internals.type("GroupStatistics")).invoke(statistics);
+        createChart = Internals.method("ChartCreator", chart);
+    }
+
+    @Benchmark
+    public Object create() throws Throwable {
+        return createChart.invoke(creator);
+    }
+
+    @Benchmark
+    public Object createAndRasterize() throws Throwable {
+        return CREATE_IMAGE.invoke(creator, (JFreeChart) createChart.invoke(creator));
+    }
+}
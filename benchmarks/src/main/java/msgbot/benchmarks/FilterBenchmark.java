@@ -0,0 +1,74 @@
+package msgbot.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering out automatically generated messages and spam, on a chat with little spam and one with a lot
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    private static final MethodHandle READ_JSON = Internals.method("Analyser", "readJSON", List.class);
+    private static final MethodHandle GET_DEFAULT = Internals.method("RuleSet", "getDefault");
+    private static final MethodHandle NEW_FILTER =
+            Internals.constructor("MessageFilter", Internals.type("RuleSet"), ForkJoinPool.class);
+    private static final MethodHandle FILTER = Internals.method("MessageFilter", "filter", List.class);
+
+    @Param({"10000"})
+    public int messages;
+
+    @Param({"clean", "spamHeavy"})
+    public String input;
+
+    // The messages as read, before any were filtered out
+    private List<Object> unfiltered;
+    private Object rules;
+
+    private List<Object> batch;
+    private Object filter;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void readMessages() throws Throwable {
+
+        File directory = Fixtures.createDirectory();
+        List<File> files = Fixtures.writeExport(directory, messages, input.equals("spamHeavy") ? 0.3 : 0.0);
+        Object analyser = Fixtures.analyse(files);
+
+        // Read again, since the analyser's own messages have been filtered
+        Internals.set(analyser, "messages", new ArrayList<>());
+        READ_JSON.invoke(analyser, files);
+
+        unfiltered = (List<Object>) Internals.get(analyser, "messages");
+        rules = GET_DEFAULT.invoke();
+    }
+
+    /**
+     * Filtering removes messages from the list and adds them to the filter, so both are replaced
+     */
+    @Setup(Level.Invocation)
+    public void createFilter() throws Throwable {
+
+        batch = new ArrayList<>(unfiltered);
+        filter = NEW_FILTER.invoke(rules, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public Object filter() throws Throwable {
+
+        FILTER.invoke(filter, batch);
+        return batch;
+    }
+}
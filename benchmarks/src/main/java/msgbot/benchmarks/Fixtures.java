@@ -0,0 +1,132 @@
+package msgbot.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the chat exports the benchmarks run on with the analyser's ExportGenerator. Generated from a fixed
+ * seed, so every run measures the same input
+ */
+final class Fixtures {
+
+    static final long SEED = 20210221L;
+    static final int PARTICIPANTS = 5;
+
+    private static final MethodHandle NEW_GENERATOR = Internals.constructor("ExportGenerator", long.class);
+    private static final MethodHandle SET_PARTICIPANTS =
+            Internals.method("ExportGenerator", "setParticipants", int.class);
+    private static final MethodHandle SET_MESSAGES = Internals.method("ExportGenerator", "setMessages", long.class);
+    private static final MethodHandle SET_SPAM_SHARE =
+            Internals.method("ExportGenerator", "setSpamShare", double.class);
+    private static final MethodHandle GENERATE = Internals.method("ExportGenerator", "generate", File.class);
+
+    private Fixtures() {
+    }
+
+    /**
+     * Generates an export from the fixed seed and points the analyser's rules at the keywords and aliases
+     * generated with it
+     * @param directory the directory the export is written to
+     * @param messages the number of messages
+     * @param spamShare the share of messages sent in spam bursts
+     * @return the message files
+     * @throws Throwable if the export couldn't be generated
+     */
+    static List<File> writeExport(File directory, int messages, double spamShare) throws Throwable {
+        return writeExport(directory, SEED, messages, spamShare);
+    }
+
+    /**
+     * Generates an export and points the analyser's rules at the keywords and aliases generated with it
+     * @param directory the directory the export is written to
+     * @param seed the seed of the generator
+     * @param messages the number of messages
+     * @param spamShare the share of messages sent in spam bursts
+     * @return the message files
+     * @throws Throwable if the export couldn't be generated
+     */
+    @SuppressWarnings("unchecked")
+    static List<File> writeExport(File directory, long seed, int messages, double spamShare) throws Throwable {
+
+        Object generator = NEW_GENERATOR.invoke(seed);
+        SET_PARTICIPANTS.invoke(generator, PARTICIPANTS);
+        SET_MESSAGES.invoke(generator, (long) messages);
+        SET_SPAM_SHARE.invoke(generator, spamShare);
+
+        List<File> files = (List<File>) GENERATE.invoke(generator, directory);
+
+        File rules = new File(directory, "rules");
+        System.setProperty("msgbot.keywords", new File(rules, "keywords.txt").getAbsolutePath());
+        System.setProperty("msgbot.aliases", new File(rules, "nameAliases.json").getAbsolutePath());
+
+        return files;
+    }
+
+    /**
+     * Copies message files to another directory
+     * @param files the message files
+     * @param directory the directory they're copied to
+     * @return the copies
+     * @throws IOException if the files couldn't be copied
+     */
+    static List<File> copy(List<File> files, File directory) throws IOException {
+
+        Files.createDirectories(directory.toPath());
+        List<File> copies = new ArrayList<>();
+
+        for(File file : files) {
+
+            File copy = new File(directory, file.getName());
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            copies.add(copy);
+        }
+
+        return copies;
+    }
+
+    /**
+     * Runs the whole analysis on message files, which are repaired in place
+     * @param files the message files
+     * @return the analyser, with every stage run
+     * @throws Throwable if the analyser couldn't be created
+     */
+    static Object analyse(List<File> files) throws Throwable {
+        return Internals.constructor("Analyser", List.class).invoke(files);
+    }
+
+    /**
+     * Creates a temporary directory that is deleted when the benchmark's JVM exits
+     * @return the directory
+     * @throws IOException if the directory couldn't be created
+     */
+    static File createDirectory() throws IOException {
+
+        File directory = Files.createTempDirectory("msgbot-bench").toFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory)));
+
+        return directory;
+    }
+
+    /**
+     * Deletes a file or a directory with everything in it
+     * @param file the file or directory
+     */
+    private static void delete(File file) {
+
+        File[] files = file.listFiles();
+
+        if(files != null) {
+
+            for(File child : files) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
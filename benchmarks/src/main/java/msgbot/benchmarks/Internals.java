@@ -0,0 +1,113 @@
+package msgbot.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the analyser's classes. They are in the default package, which classes in a package can't
+ * refer to and JMH doesn't allow benchmarks in, so they're reached by name through method handles
+ */
+final class Internals {
+
+    private Internals() {
+    }
+
+    /**
+     * Loads a class of the analyser
+     * @param name the name of the class
+     * @return the class
+     */
+    static Class<?> type(String name) {
+
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a method, private or not, declared by a class of the analyser
+     * @param type the name of the class
+     * @param name the name of the method
+     * @param parameters the parameter types of the method
+     * @return handle of the method, taking the instance first unless it's static
+     */
+    static MethodHandle method(String type, String name, Class<?>... parameters) {
+
+        try {
+            Method method = type(type).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a constructor, private or not, of a class of the analyser
+     * @param type the name of the class
+     * @param parameters the parameter types of the constructor
+     * @return handle of the constructor
+     */
+    static MethodHandle constructor(String type, Class<?>... parameters) {
+
+        try {
+            Constructor<?> constructor = type(type).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a field of an object
+     * @param target the object
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    static Object get(Object target, String name) {
+
+        try {
+            return field(target, name).get(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sets a field of an object
+     * @param target the object
+     * @param name the name of the field
+     * @param value the new value of the field
+     */
+    static void set(Object target, String name, Object value) {
+
+        try {
+            field(target, name).set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a field declared by the class of an object
+     * @param target the object
+     * @param name the name of the field
+     * @return the field, made accessible
+     */
+    private static Field field(Object target, String name) {
+
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
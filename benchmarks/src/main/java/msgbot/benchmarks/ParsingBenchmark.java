@@ -0,0 +1,107 @@
+package msgbot.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading an export: repairing its encoding, unescaping its text and parsing its messages
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+
+    private static final MethodHandle REPAIR_JSON = Internals.method("JSONRepair", "repairJSON", List.class);
+    private static final MethodHandle UNESCAPE_STRING = Internals.method("UnicodeParser", "unescapeString", String.class);
+    private static final MethodHandle READ_JSON = Internals.method("Analyser", "readJSON", List.class);
+
+    @Param({"10000"})
+    public int messages;
+
+    private File directory;
+    private List<File> export;
+
+    // The newest message file as Facebook writes it
+    private String escapedText;
+
+    @Setup(Level.Trial)
+    public void writeExport() throws Throwable {
+
+        directory = Fixtures.createDirectory();
+        export = Fixtures.writeExport(new File(directory, "export"), messages, 0.0);
+        escapedText = new String(Files.readAllBytes(export.get(0).toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The export is repaired in place, so every repair starts from a fresh copy
+     */
+    @State(Scope.Thread)
+    public static class RepairState {
+
+        private List<File> export;
+        private File directory;
+        private List<File> files;
+
+        @Setup(Level.Trial)
+        public void createCopy(ParsingBenchmark benchmark) {
+
+            export = benchmark.export;
+            directory = new File(benchmark.directory, "repair");
+        }
+
+        @Setup(Level.Invocation)
+        public void restoreCopy() throws IOException {
+            files = Fixtures.copy(export, directory);
+        }
+    }
+
+    /**
+     * An analyser whose messages are cleared before every read, since reading adds to them
+     */
+    @State(Scope.Thread)
+    public static class ReadState {
+
+        private Object analyser;
+        private List<File> files;
+
+        @Setup(Level.Trial)
+        public void createAnalyser(ParsingBenchmark benchmark) throws Throwable {
+
+            files = Fixtures.copy(benchmark.export, new File(benchmark.directory, "read"));
+            analyser = Fixtures.analyse(files);
+        }
+
+        @Setup(Level.Invocation)
+        public void clearMessages() {
+            Internals.set(analyser, "messages", new ArrayList<>());
+        }
+    }
+
+    @Benchmark
+    public void repairJSON(RepairState state) throws Throwable {
+        REPAIR_JSON.invoke(state.files);
+    }
+
+    @Benchmark
+    public Object unescapeString() throws Throwable {
+        return UNESCAPE_STRING.invoke(escapedText);
+    }
+
+    @Benchmark
+    public Object readJSON(ReadState state) throws Throwable {
+
+        READ_JSON.invoke(state.analyser, state.files);
+        return Internals.get(state.analyser, "messages");
+    }
+}
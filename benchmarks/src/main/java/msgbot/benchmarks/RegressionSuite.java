@@ -0,0 +1,234 @@
+package msgbot.benchmarks;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the whole analysis and the pdf report on generated exports and checks them against the budgets in
+ * budgets.json: analysed messages per second, peak heap and the time taken to write the report. Exits with 1
+ * when any budget is exceeded, so a build can fail on it. Takes the path of another budgets file, if given
+ */
+public class RegressionSuite {
+
+    private static final String BUDGETS_RESOURCE = "/budgets.json";
+
+    private static final MethodHandle NEW_ANALYSER =
+            Internals.constructor("Analyser", List.class, Internals.type("Metrics"));
+    private static final MethodHandle NEW_METRICS = Internals.constructor("Metrics");
+    private static final MethodHandle NEW_WRITER =
+            Internals.constructor("PDFWriter", Internals.type("GroupStatistics"));
+    private static final MethodHandle WRITE_TO_PDF =
+            Internals.method("PDFWriter", "writeToPDF", File.class, File.class);
+
+    public static void main(String[] args) throws Throwable {
+
+        JSONObject budgets = readBudgets(args.length > 0 ? new File(args[0]) : null);
+        int warmups = ((Number) budgets.get("warmups")).intValue();
+        int runs = ((Number) budgets.get("runs")).intValue();
+
+        File directory = Fixtures.createDirectory();
+        boolean passed = true;
+
+        for(Object datasetJSON : (JSONArray) budgets.get("datasets")) {
+
+            Dataset dataset = new Dataset((JSONObject) datasetJSON);
+            passed &= dataset.check(directory, warmups, runs);
+        }
+
+        System.out.println(passed ? "All budgets met" : "Budgets exceeded");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Reads the budgets, from a file or from the ones packaged with the suite
+     * @param file the budgets file, null for the packaged budgets
+     * @return the budgets
+     * @throws IOException if the budgets couldn't be read
+     * @throws ParseException if the budgets aren't valid JSON
+     */
+    private static JSONObject readBudgets(File file) throws IOException, ParseException {
+
+        InputStream in = file != null ? new FileInputStream(file) :
+                RegressionSuite.class.getResourceAsStream(BUDGETS_RESOURCE);
+
+        if(in == null) {
+            throw new FileNotFoundException(BUDGETS_RESOURCE);
+        }
+
+        try(Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return (JSONObject) new JSONParser().parse(reader);
+        }
+    }
+
+    /**
+     * Resets the peak usage of the heap, after collecting what garbage is left from the previous run
+     */
+    private static void resetPeakHeap() {
+
+        System.gc();
+
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Reads the peak usage of the heap since it was last reset. Each pool peaks at a different time,
+     * so their sum is an upper bound
+     * @return the peak usage in bytes
+     */
+    private static long peakHeap() {
+
+        long peak = 0;
+
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if(pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+    /**
+     * Returns the median of the values
+     * @param values the values
+     * @return the median
+     */
+    private static double median(double[] values) {
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * An export generated from a fixed seed and the budgets the pipeline has to meet on it
+     */
+    private static class Dataset {
+
+        private final String name;
+        private final long seed;
+        private final int messages;
+        private final double spamShare;
+
+        private final double minMessagesPerSecond;
+        private final double maxPeakHeapMB;
+        private final double maxReportMillis;
+
+        Dataset(JSONObject json) {
+
+            name = (String) json.get("name");
+            seed = ((Number) json.get("seed")).longValue();
+            messages = ((Number) json.get("messages")).intValue();
+            spamShare = ((Number) json.get("spamShare")).doubleValue();
+
+            minMessagesPerSecond = ((Number) json.get("minMessagesPerSecond")).doubleValue();
+            maxPeakHeapMB = ((Number) json.get("maxPeakHeapMB")).doubleValue();
+            maxReportMillis = ((Number) json.get("maxReportMillis")).doubleValue();
+        }
+
+        /**
+         * Generates the export, runs the pipeline on it and compares the median of the measured runs
+         * with the budgets
+         * @param directory the directory the export and reports are written to
+         * @param warmups the number of runs that aren't measured
+         * @param runs the number of measured runs
+         * @return true if every budget was met
+         * @throws Throwable if the pipeline couldn't be run
+         */
+        boolean check(File directory, int warmups, int runs) throws Throwable {
+
+            File datasetDirectory = new File(directory, name);
+            List<File> export = Fixtures.writeExport(new File(datasetDirectory, "export"), seed, messages, spamShare);
+
+            double[] messagesPerSecond = new double[runs];
+            double[] peakHeapMB = new double[runs];
+            double[] reportMillis = new double[runs];
+
+            for(int i = 0; i < warmups + runs; i++) {
+
+                // The analyser repairs its files in place, so every run starts from a fresh copy
+                List<File> files = Fixtures.copy(export, new File(datasetDirectory, "run" + i));
+                double[] run = run(files, datasetDirectory);
+
+                if(i >= warmups) {
+
+                    messagesPerSecond[i - warmups] = run[0];
+                    peakHeapMB[i - warmups] = run[1];
+                    reportMillis[i - warmups] = run[2];
+                }
+            }
+
+            List<String> failures = new ArrayList<>();
+
+            double throughput = median(messagesPerSecond);
+            double heap = median(peakHeapMB);
+            double report = median(reportMillis);
+
+            if(throughput < minMessagesPerSecond) {
+                failures.add(String.format("%.0f messages/s is below %.0f", throughput, minMessagesPerSecond));
+            }
+
+            if(heap > maxPeakHeapMB) {
+                failures.add(String.format("%.0f MB peak heap is above %.0f", heap, maxPeakHeapMB));
+            }
+
+            if(report > maxReportMillis) {
+                failures.add(String.format("%.0f ms report time is above %.0f", report, maxReportMillis));
+            }
+
+            System.out.printf("%-12s %9d messages %10.0f messages/s %7.0f MB heap %8.0f ms report  %s%n",
+                    name, messages, throughput, heap, report, failures.isEmpty() ? "ok" : "FAILED");
+
+            for(String failure : failures) {
+                System.out.println("    " + failure);
+            }
+
+            return failures.isEmpty();
+        }
+
+        /**
+         * Runs the analysis and writes the report
+         * @param files the message files
+         * @param directory the directory the report is written to
+         * @return the messages analysed per second, the peak heap in MB and the report time in milliseconds
+         * @throws Throwable if the pipeline couldn't be run
+         */
+        private double[] run(List<File> files, File directory) throws Throwable {
+
+            resetPeakHeap();
+
+            long start = System.nanoTime();
+            Object analyser = NEW_ANALYSER.invoke(files, NEW_METRICS.invoke());
+            long analysed = System.nanoTime();
+
+            Object writer = NEW_WRITER.invoke(Internals.get(analyser, "statistics"));
+            WRITE_TO_PDF.invoke(writer, new File(directory, "summary.pdf"), new File(directory, "report.pdf"));
+            long reported = System.nanoTime();
+
+            return new double[] {
+                    messages / ((analysed - start) / 1e9),
+                    peakHeap() / (1024.0 * 1024.0),
+                    (reported - analysed) / 1e6
+            };
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package msgbot.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The analysis stages that go through every message: word frequencies, the most common words and hourly messages
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+
+    private static final MethodHandle NEW_STATISTICS = Internals.constructor("GroupStatistics", List.class);
+    private static final MethodHandle FIND_WORD_FREQUENCY = Internals.method("Analyser", "findWordFrequency");
+    private static final MethodHandle GET_COMMON_WORDS = Internals.method("Analyser", "getCommonWords");
+    private static final MethodHandle GET_HOURLY_MESSAGES = Internals.method("Analyser", "getHourlyMessages");
+
+    @Param({"10000"})
+    public int messages;
+
+    // Analyser that has run every stage on the filtered messages
+    private Object analyser;
+
+    @Setup(Level.Trial)
+    public void analyse() throws Throwable {
+
+        File directory = Fixtures.createDirectory();
+        analyser = Fixtures.analyse(Fixtures.writeExport(directory, messages, 0.0));
+    }
+
+    /**
+     * Word frequencies add to the user statistics, so every count starts from empty statistics
+     */
+    @State(Scope.Thread)
+    public static class WordFrequencyState {
+
+        private Object analyser;
+
+        @Setup(Level.Invocation)
+        public void clearStatistics(StatisticsBenchmark benchmark) throws Throwable {
+
+            analyser = benchmark.analyser;
+            resetStatistics(analyser);
+        }
+    }
+
+    /**
+     * The most common words are picked from frequencies counted before each invocation
+     */
+    @State(Scope.Thread)
+    public static class CommonWordsState {
+
+        private Object analyser;
+
+        @Setup(Level.Invocation)
+        public void countWords(StatisticsBenchmark benchmark) throws Throwable {
+
+            analyser = benchmark.analyser;
+            resetStatistics(analyser);
+            FIND_WORD_FREQUENCY.invoke(analyser);
+        }
+    }
+
+    @Benchmark
+    public Object findWordFrequency(WordFrequencyState state) throws Throwable {
+
+        FIND_WORD_FREQUENCY.invoke(state.analyser);
+        return Internals.get(state.analyser, "statistics");
+    }
+
+    @Benchmark
+    public Object getCommonWords(CommonWordsState state) throws Throwable {
+
+        GET_COMMON_WORDS.invoke(state.analyser);
+        return Internals.get(state.analyser, "statistics");
+    }
+
+    @Benchmark
+    public Object getHourlyMessages() throws Throwable {
+
+        GET_HOURLY_MESSAGES.invoke(analyser);
+        return Internals.get(analyser, "statistics");
+    }
+
+    /**
+     * Replaces the analyser's statistics with empty ones for the same users
+     * @param analyser the analyser
+     * @throws Throwable if the statistics couldn't be created
+     */
+    private static void resetStatistics(Object analyser) throws Throwable {
+        Internals.set(analyser, "statistics", NEW_STATISTICS.invoke(Internals.get(analyser, "userNames")));
+    }
+}
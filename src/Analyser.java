@@ -4,29 +4,38 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class Analyser {
 
+    public static final String MEMORY_BUDGET_PROPERTY = "msgbot.memoryBudget";
+    public static final String SCRATCH_PROPERTY = "msgbot.scratch";
+    public static final String OFF_HEAP_PROPERTY = "msgbot.offHeap";
+
+    // Number of message stores in use at once while messages are filtered, each gets an equal share of the budget
+    private static final int STORES = 3;
+
     // All messages sent
-    private List<MessageFormat> messages = new ArrayList<>();
+    private List<Message> messages = new ArrayList<>();
 
     // Messages classified as spam
-    private List<MessageFormat> spamMessages;
+    private List<Message> spamMessages;
 
     // Messages that aren't written by any user
-    private List<MessageFormat> infoMessages;
+    private List<Message> infoMessages;
 
     // Informative messages about the change of state for some property
-    private List<MessageFormat> nameChangeMessages = new ArrayList<>();
-    private List<MessageFormat> groupChangeMessages = new ArrayList<>();
-    private List<MessageFormat> photoChangeMessages = new ArrayList<>();
-    private List<MessageFormat> themeChangeMessages = new ArrayList<>();
+    private List<Message> nameChangeMessages = new ArrayList<>();
+    private List<Message> groupChangeMessages = new ArrayList<>();
+    private List<Message> photoChangeMessages = new ArrayList<>();
+    private List<Message> themeChangeMessages = new ArrayList<>();
 
     // Users participating in chat
     private List<String> userNames;
@@ -36,54 +45,162 @@ public class Analyser {
 
     private GroupStatistics statistics;
 
-    // Keywords that determine whether a message is classified as a nameChangeMessage
-    private final String[] NAME_CHANGE_KEYWORDS = new String[] {
-            "pakeitė savo pravardę į", "pakeitė tavo vartotojo vardą į", "pakeitė Mykolas Lekavičius vardą į",
-            "pakeitė Dominykas Simpukas vardą į", "pakeitėte vartotojo vardą iš Dominykas Simpukas į",
-            "pakeitėte vartotojo vardą iš Mykolas Lekavičius į", "set your nickname to"
-    };
+    // Keywords and name aliases that identify automatically generated messages
+    private final RuleSet rules = RuleSet.getDefault();
+
+    // Time and resources spent on each stage of the analysis
+    private final Metrics metrics;
+
+    // Estimated bytes of messages kept in memory before the rest are spilled to scratch files, negative for no limit
+    private final long memoryBudget = Long.getLong(MEMORY_BUDGET_PROPERTY, -1);
 
-    // Keywords that determine whether a message is classified as a groupChangeMessage
-    private final String[] GROUP_CHANGE_KEYWORDS = new String[] {
-            "pavadino grupę", "pavadinote grupę"
-    };
+    // Where scratch files are created, null for the system's temporary directory
+    private final File scratchDirectory =
+            System.getProperty(SCRATCH_PROPERTY) == null ? null : new File(System.getProperty(SCRATCH_PROPERTY));
 
-    // Keywords that determine whether a message is classified as a photoChangeMessage
-    private final String[] PHOTO_CHANGE_KEYWORDS = new String[] {
-            "pakeitė grupės nuotrauką.", "pakeitėte grupės nuotrauką"
-    };
+    // Whether messages are kept outside of the heap, in arenas, rather than in spilling stores
+    private final boolean offHeap = Boolean.getBoolean(OFF_HEAP_PROPERTY);
 
-    // Keywords that determine whether a message is classified as a themeChangeMessage
-    private final String[] THEME_CHANGE_KEYWORDS = new String[] {
-            "changed the chat theme to"
-    };
+    // Stores and arenas messages are kept in, let go of once the statistics are calculated
+    private final List<AutoCloseable> stores = new ArrayList<>();
 
     /**
      * Analyses the messages
      * @param files Messenger message files in JSON format
      */
     private Analyser(List<File> files) {
+        this(files, new Metrics());
+    }
 
-        JSONRepair.repairJSON(files);
-        readJSON(files);
+    /**
+     * Analyses the messages, recording each stage in a registry
+     * @param files Messenger message files in JSON format
+     * @param metrics the registry the stages are recorded in
+     */
+    private Analyser(List<File> files, Metrics metrics) {
+
+        this.metrics = metrics;
+
+        JSONRepair.repairJSON(files, metrics);
 
         // Filters out spam and informative messages
-        MessageFilter filter = new MessageFilter();
-        filter.filter(messages);
+        MessageFilter filter = new MessageFilter(rules, ForkJoinPool.commonPool(), metrics);
+
+        if(memoryBudget < 0 && !offHeap) {
+
+            readJSON(files);
+            filter.filter(messages);
+
+            infoMessages = filter.getInfoMessages();
+            spamMessages = filter.getSpamMessages();
+        }
+        else {
+            readStreamed(files, filter);
+        }
 
-        infoMessages = filter.getInfoMessages();
-        spamMessages = filter.getSpamMessages();
         userNames = new ArrayList<>(filter.getNameAliases().keySet());
 
         statistics = new GroupStatistics(userNames);
 
-        getTypeMessages(GROUP_CHANGE_KEYWORDS, groupChangeMessages);
-        getTypeMessages(NAME_CHANGE_KEYWORDS, nameChangeMessages);
-        getTypeMessages(PHOTO_CHANGE_KEYWORDS, photoChangeMessages);
-        getTypeMessages(THEME_CHANGE_KEYWORDS, themeChangeMessages);
+        try(Metrics.Span span = metrics.start("analyse.typeMessages")) {
+
+            span.addItems(infoMessages.size());
+
+            getTypeMessages(rules.getGroupChangeMatcher(), groupChangeMessages);
+            getTypeMessages(rules.getNameChangeMatcher(), nameChangeMessages);
+            getTypeMessages(rules.getPhotoChangeMatcher(), photoChangeMessages);
+            getTypeMessages(rules.getThemeChangeMatcher(), themeChangeMessages);
+        }
+
+        try(Metrics.Span span = metrics.start("analyse.chatDates")) {
+            span.addItems(messages.size());
+            chatDates = getChatDates();
+        }
 
-        chatDates = getChatDates();
         analyse();
+
+        for(AutoCloseable store : stores) {
+            close(store);
+        }
+    }
+
+    /**
+     * Closes a store or an arena of messages. Closing either again has no effect
+     * @param store the store or arena
+     */
+    private void close(AutoCloseable store) {
+
+        try {
+            store.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads and filters the messages into arenas or into stores that spill them to scratch files past the
+     * memory budget. Messages are filtered as they're read back, so only the messages around the one being
+     * filtered are needed on the heap
+     * @param files JSON files containing messages
+     * @param filter the filter of spam and informative messages
+     */
+    private void readStreamed(List<File> files, MessageFilter filter) {
+
+        List<Message> readMessages = createStore();
+        messages = readMessages;
+        readJSON(files);
+
+        List<Message> keptMessages = createStore();
+        List<Message> spam = createStore();
+        List<Message> info = new ArrayList<>();
+
+        filter.filter(readMessages.iterator(), new MessageSink() {
+
+            @Override
+            public void kept(Message message) {
+                keptMessages.add(message);
+            }
+
+            @Override
+            public void spam(Message message) {
+                spam.add(message);
+            }
+
+            @Override
+            public void info(Message message) {
+
+                // Kept on the heap, the messages as read are let go of before informative messages are analysed
+                info.add(new MessageFormat(message));
+            }
+        });
+
+        // The messages as read aren't needed once they're filtered
+        close((AutoCloseable) readMessages);
+
+        messages = keptMessages;
+        spamMessages = spam;
+        infoMessages = info;
+    }
+
+    /**
+     * Creates an arena if messages are kept outside of the heap, otherwise a store that spills messages to a
+     * scratch file once they're past its share of the memory budget
+     * @return the arena or store
+     */
+    private List<Message> createStore() {
+
+        if(offHeap) {
+
+            MessageArena arena = new MessageArena();
+            stores.add(arena);
+
+            return arena;
+        }
+
+        MessageStore store = new MessageStore(memoryBudget / STORES, scratchDirectory);
+        stores.add(store);
+
+        return store;
     }
 
     /**
@@ -91,32 +208,53 @@ public class Analyser {
      */
     private void analyse() {
 
-        getMessagesSent();
-        getWordsSent();
-        getCharsSent();
+        step("messagesSent", this::getMessagesSent);
+        step("wordsSent", this::getWordsSent);
+        step("charsSent", this::getCharsSent);
+
+        step("wordFrequency", this::findWordFrequency);
+        step("commonWords", this::getCommonWords);
+        step("nicknames", this::allocateNicknames);
+
+        step("groupNames", this::getGroupNames);
+        step("photosChanged", this::getPhotosChanged);
+        step("themesChanged", this::getThemesChanged);
+
+        step("averageChars", this::getAverageChars);
+        step("averageWords", this::getAverageWords);
+        step("spamMessages", this::getSpamMessages);
 
-        findWordFrequency();
-        getCommonWords();
-        allocateNicknames();
+        step("reactions", this::getReactions);
+        step("messagesEachDay", this::messagesEachDay);
+        step("messagesEachMonth", this::messagesEachMonth);
 
-        getGroupNames();
-        getPhotosChanged();
-        getThemesChanged();
+        step("wordStatistics", () -> getWordStatistics("seni"));
+        step("hourlyMessages", this::getHourlyMessages);
+        step("creationDate", this::getCreationDate);
 
-        getAverageChars();
-        getAverageWords();
-        getSpamMessages();
+        step("statCreationDate", this::getStatCreationDate);
+        step("periodBetween", this::getPeriodBetween);
+        step("timeRangeIndex", this::getTimeRangeIndex);
+    }
 
-        getReactions();
-        messagesEachDay();
-        messagesEachMonth();
+    /**
+     * Runs a step of the analysis, recording it as a stage that processes every message
+     * @param name the name of the step
+     * @param step the step
+     */
+    private void step(String name, Runnable step) {
 
-        getWordStatistics("seni");
-        getHourlyMessages();
-        getCreationDate();
+        try(Metrics.Span span = metrics.start("analyse." + name)) {
+            span.addItems(messages.size());
+            step.run();
+        }
+    }
 
-        getStatCreationDate();
-        getPeriodBetween();
+    /**
+     * Indexes daily counts and monthly words, so statistics of any range of days can be asked for
+     */
+    private void getTimeRangeIndex() {
+        statistics.setTimeRangeIndex(new TimeRangeIndex(userNames, messages, spamMessages));
     }
 
     /**
@@ -204,7 +342,7 @@ public class Analyser {
         }
 
         // For each message
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             Calendar calendar = new GregorianCalendar();
             calendar.setTimeInMillis(message.getTimestamp());
@@ -257,7 +395,7 @@ public class Analyser {
             messagesPerDay.put(dateFormat.format(date), 0);
         }
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
             String dateString = dateFormat.format(new Date(message.getTimestamp()));
             messagesPerDay.put(dateString, messagesPerDay.get(dateString) + 1);
         }
@@ -284,7 +422,7 @@ public class Analyser {
             messagesPerMonth.put(dateFormat.format(date), 0);
         }
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             String dateString = dateFormat.format(new Date(message.getTimestamp()));
             messagesPerMonth.put(dateString, messagesPerMonth.get(dateString) + 1);
@@ -307,7 +445,7 @@ public class Analyser {
     private void getWordStatistics(String searchWord) {
 
         String wordRegex = "";
-        MessageFormat firstOccurrence = null;
+        Message firstOccurrence = null;
 
         // Constructs a regex that allows a word to have repeating letters e.g. "word" -> "wwooorrd"
         for(char c : searchWord.toLowerCase().toCharArray()) {
@@ -323,7 +461,7 @@ public class Analyser {
         }
 
         // For each message
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             // Get the words of the message
             String[] words = message.getContent().split("\\s+");
@@ -351,7 +489,9 @@ public class Analyser {
 
         wordFreq.sort(Comparator.comparing(Pair::getKey));
         statistics.setWordStatistics(wordFreq);
-        statistics.setFirstOccurrence(firstOccurrence);
+        // Messages of an arena are views of it, which can't be read once it's closed
+        statistics.setFirstOccurrence(firstOccurrence instanceof MessageArena.View ?
+                new MessageFormat(firstOccurrence) : firstOccurrence);
     }
 
     /**
@@ -359,7 +499,7 @@ public class Analyser {
      */
     private void getReactions() {
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             // If message has a reaction
             if(!message.getReactions().isEmpty()) {
@@ -386,15 +526,15 @@ public class Analyser {
      */
     private void getSpamMessages() {
 
-        for(MessageFormat message : spamMessages) {
+        for(Message message : spamMessages) {
 
             for(String user : userNames) {
 
                 if(message.getSender().equals(user)) {
 
                     statistics.getUserStats().get(user).incrSpamMessages();
-                    statistics.getUserStats().get(user).incrSpamWords(message.getContent().split("\\s+").length);
-                    statistics.getUserStats().get(user).incrSpamChars(message.getContent().length());
+                    statistics.getUserStats().get(user).incrSpamWords(message.countWords());
+                    statistics.getUserStats().get(user).incrSpamChars(message.countChars());
                 }
             }
         }
@@ -429,16 +569,10 @@ public class Analyser {
      */
     private void getThemesChanged() {
 
-        for(MessageFormat message : themeChangeMessages) {
+        for(Message message : themeChangeMessages) {
 
-            for(String keyword : THEME_CHANGE_KEYWORDS) {
-
-                for(String user : userNames) {
-
-                    if(message.getContent().startsWith(user + " " + keyword)) {
-                        statistics.getUserStats().get(user).incrThemeChanged();
-                    }
-                }
+            for(RuleSet.Match match : rules.getThemeChangeMatcher().allMatches(message.getContent())) {
+                statistics.getUserStats().get(match.getUser()).incrThemeChanged();
             }
         }
     }
@@ -448,42 +582,25 @@ public class Analyser {
      */
     private void getPhotosChanged() {
 
-        for(MessageFormat message : photoChangeMessages) {
+        for(Message message : photoChangeMessages) {
 
-            for(String keyword : PHOTO_CHANGE_KEYWORDS) {
-
-                for(String user : userNames) {
-
-                    if(message.getContent().startsWith(user + " " + keyword)) {
-                        statistics.getUserStats().get(user).incrPhotoChanged();
-                    }
-                }
+            for(RuleSet.Match match : rules.getPhotoChangeMatcher().allMatches(message.getContent())) {
+                statistics.getUserStats().get(match.getUser()).incrPhotoChanged();
             }
         }
     }
 
     /**
      * Builds up a list of informative messages of specific type.
-     * @param keywords the keywords that the messages of that type start with
+     * @param matcher matches the names and keywords that the messages of that type start with
      * @param typeMessages the list that holds the messages of the type
      */
-    private void getTypeMessages(String[] keywords, List<MessageFormat> typeMessages) {
-
-        for(MessageFormat message : infoMessages) {
-
-            nextMessage:
-            for(String keyword : keywords) {
+    private void getTypeMessages(PhraseMatcher<RuleSet.Match> matcher, List<Message> typeMessages) {
 
-                for (String name : userNames) {
-
-                    if (message.getContent().startsWith(name + " " + keyword)) {
-                        typeMessages.add(message);
-
-                        // No other keyword can match the same message
-                        break nextMessage;
-                    }
-                }
+        for(Message message : infoMessages) {
 
+            if(matcher.firstMatch(message.getContent()) != null) {
+                typeMessages.add(message);
             }
         }
     }
@@ -493,19 +610,13 @@ public class Analyser {
      */
     private void getGroupNames() {
 
-        for(MessageFormat message : groupChangeMessages) {
-
-            for(String keyword : GROUP_CHANGE_KEYWORDS) {
+        for(Message message : groupChangeMessages) {
 
-                for(String user : userNames) {
+            for(RuleSet.Match match : rules.getGroupChangeMatcher().allMatches(message.getContent())) {
 
-                    if(message.getContent().startsWith(user + " " + keyword)) {
+                statistics.addGroupName(getNamePart(message.getContent(), match.getUser() + " " + match.getKeyword()));
 
-                        statistics.addGroupName(getNamePart(message.getContent(), user + " " + keyword));
-
-                        statistics.getUserStats().get(user).incrGroupChanged();
-                    }
-                }
+                statistics.getUserStats().get(match.getUser()).incrGroupChanged();
             }
         }
 
@@ -520,20 +631,17 @@ public class Analyser {
      */
     private void allocateNicknames() {
 
-        for(MessageFormat message : nameChangeMessages) {
-
-            for(String keyword : NAME_CHANGE_KEYWORDS) {
+        for(Message message : nameChangeMessages) {
 
-                for(String user : userNames) {
+            for(RuleSet.Match match : rules.getNameChangeMatcher().allMatches(message.getContent())) {
 
-                    if(message.getContent().startsWith(user + " " + keyword)) {
+                String user = match.getUser();
+                String keyword = match.getKeyword();
 
-                        statistics.getUserStats().get(determineUser(keyword, user))
-                                .addNickname(getNamePart(message.getContent(), user + " " + keyword));
+                statistics.getUserStats().get(determineUser(keyword, user))
+                        .addNickname(getNamePart(message.getContent(), user + " " + keyword));
 
-                        statistics.getUserStats().get(user).incrNamesChanged();
-                    }
-                }
+                statistics.getUserStats().get(user).incrNamesChanged();
             }
         }
 
@@ -632,9 +740,14 @@ public class Analyser {
 
         for(File file : files) {
 
-            try {
+            // Repaired files are UTF-8 whatever the platform's charset is
+            try(Metrics.Span span = metrics.start("parse");
+                Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+
+                span.setSubject(file.getPath());
+                span.addBytesRead(file.length());
 
-                JSONObject data = (JSONObject) parser.parse(new FileReader(file));
+                JSONObject data = (JSONObject) parser.parse(reader);
                 JSONArray participants = (JSONArray) data.get("participants");
                 JSONArray messages = (JSONArray) data.get("messages");
 
@@ -691,6 +804,8 @@ public class Analyser {
                     this.messages.add(messageFormat);
                 }
 
+                span.addItems(messages.size());
+
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -704,7 +819,7 @@ public class Analyser {
 
         Map<String, Integer> messageCount = new HashMap<>();
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             if(messageCount.containsKey(message.getSender())) {
                 messageCount.put(message.getSender(), messageCount.get(message.getSender()) + 1);
@@ -725,13 +840,13 @@ public class Analyser {
 
         Map<String, Integer> wordCount = new HashMap<>();
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             if(wordCount.containsKey(message.getSender())) {
                 wordCount.put(message.getSender(), wordCount.get(message.getSender()) +
-                        message.getContent().split("\\s+").length);
+                        message.countWords());
             } else {
-                wordCount.put(message.getSender(), message.getContent().split("\\s+").length);
+                wordCount.put(message.getSender(), message.countWords());
             }
         }
 
@@ -747,12 +862,12 @@ public class Analyser {
 
         Map<String, Integer> charCount = new HashMap<>();
 
-        for(MessageFormat message : messages) {
+        for(Message message : messages) {
 
             if(charCount.containsKey(message.getSender())) {
-                charCount.put(message.getSender(), charCount.get(message.getSender()) + message.getContent().length());
+                charCount.put(message.getSender(), charCount.get(message.getSender()) + message.countChars());
             } else {
-                charCount.put(message.getSender(), message.getContent().length());
+                charCount.put(message.getSender(), message.countChars());
             }
         }
 
@@ -770,7 +885,7 @@ public class Analyser {
 
         for(String user : userNames) {
 
-            for (MessageFormat message : messages) {
+            for (Message message : messages) {
 
                 if(message.getSender().equals(user)) {
 
@@ -863,11 +978,38 @@ public class Analyser {
 
         // FIXME: 21/02/2021 add error checking
 
+        Metrics metrics = new Metrics();
+
         // Analyses files
-        Analyser analyser = new Analyser(files);
+        Analyser analyser = new Analyser(files, metrics);
 
         // Writes statistics to pdf file
         PDFWriter pdfWriter = new PDFWriter(analyser.statistics);
+        pdfWriter.setMetrics(metrics);
         pdfWriter.writeToPDF();
+
+        // Writes statistics to an html report if a directory for one is configured
+        String htmlReport = System.getProperty(HTMLWriter.OUTPUT_PROPERTY);
+
+        if(htmlReport != null) {
+
+            try {
+                new HTMLWriter(analyser.statistics).writeReport(new File(htmlReport));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Writes the time and resources spent on each stage if a file for them is configured
+        String metricsOutput = System.getProperty(Metrics.OUTPUT_PROPERTY);
+
+        if(metricsOutput != null) {
+
+            try {
+                metrics.writeSummary(new File(metricsOutput));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 }
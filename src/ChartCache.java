@@ -0,0 +1,311 @@
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.Marker;
+import org.jfree.chart.plot.PiePlot;
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.ValueMarker;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.PieDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.ui.Layer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Disk cache of rendered charts. Each chart is stored under a digest of its data and style,
+ * so a chart is only rendered again when what it shows has changed
+ */
+public class ChartCache {
+
+    public static final String DIRECTORY_PROPERTY = "msgbot.chartCache";
+    public static final String MAX_BYTES_PROPERTY = "msgbot.chartCacheBytes";
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    // Bump when the layout of the cache entries changes
+    private static final int CACHE_VERSION = 1;
+    private static final String SUFFIX = ".pdf";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache in a directory
+     * @param directory where the rendered charts are stored
+     * @param maxBytes the size the least recently used charts are evicted down to
+     */
+    public ChartCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache configured by system properties
+     * @return the cache or null if no cache directory is configured
+     */
+    public static ChartCache getDefault() {
+
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+
+        if(directory == null) {
+            return null;
+        }
+
+        return new ChartCache(new File(directory), Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Computes the key a chart is cached under from its data and style
+     * @param chart the chart
+     * @param variant how the chart is rendered, charts rendered differently are cached separately
+     * @return hex digest of the chart or null if the chart's plot isn't supported
+     */
+    public String keyOf(JFreeChart chart, String variant) {
+
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+
+            // Styles are set in code, so its version stands in for them
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(ChartCreator.STYLE_VERSION);
+            out.writeInt(ChartCreator.CHART_WIDTH);
+            out.writeInt(ChartCreator.CHART_HEIGHT);
+            out.writeUTF(variant);
+            out.writeUTF(chart.getTitle() == null ? "" : chart.getTitle().getText());
+
+            Plot plot = chart.getPlot();
+            out.writeUTF(plot.getClass().getName());
+
+            if(plot instanceof CategoryPlot) {
+                writeDataset(out, ((CategoryPlot) plot).getDataset());
+            }
+            else if(plot instanceof PiePlot) {
+                writeDataset(out, ((PiePlot) plot).getDataset());
+            }
+            else if(plot instanceof XYPlot) {
+                writeDataset(out, ((XYPlot) plot).getDataset());
+                writeMarkers(out, ((XYPlot) plot).getDomainMarkers(Layer.FOREGROUND));
+                writeMarkers(out, ((XYPlot) plot).getDomainMarkers(Layer.BACKGROUND));
+            }
+            else {
+                return null;
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        StringBuilder key = new StringBuilder();
+
+        for(byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Reads a rendered chart and marks it as recently used
+     * @param key the key of the chart
+     * @return the rendered chart, a single page pdf, or null if it isn't cached
+     */
+    public synchronized byte[] get(String key) {
+
+        File file = new File(directory, key + SUFFIX);
+
+        if(!file.isFile()) {
+            return null;
+        }
+
+        try {
+            byte[] rendered = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return rendered;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Stores a rendered chart, evicting the least recently used charts if the cache grows too large
+     * @param key the key of the chart
+     * @param rendered the rendered chart, a single page pdf
+     */
+    public synchronized void put(String key, byte[] rendered) {
+
+        try {
+
+            Files.createDirectories(directory.toPath());
+
+            // Written next to its final name and moved, so other processes never read a partial chart
+            File temp = File.createTempFile(key, ".tmp", directory);
+            Files.write(temp.toPath(), rendered);
+            Files.move(temp.toPath(), new File(directory, key + SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            evict();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes the least recently used charts until the cache fits its size
+     */
+    private void evict() {
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+
+        if(files == null) {
+            return;
+        }
+
+        long size = 0;
+
+        for(File file : files) {
+            size += file.length();
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for(int i = 0; size > maxBytes && i < files.length; i++) {
+
+            long length = files[i].length();
+
+            if(files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * Writes the values of a category dataset
+     * @param out the stream being digested
+     * @param dataset the dataset
+     * @throws IOException if the stream can't be written to
+     */
+    private void writeDataset(DataOutputStream out, CategoryDataset dataset) throws IOException {
+
+        out.writeInt(dataset.getRowCount());
+        out.writeInt(dataset.getColumnCount());
+
+        for(int row = 0; row < dataset.getRowCount(); row++) {
+            out.writeUTF(String.valueOf(dataset.getRowKey(row)));
+        }
+
+        for(int column = 0; column < dataset.getColumnCount(); column++) {
+
+            out.writeUTF(String.valueOf(dataset.getColumnKey(column)));
+
+            for(int row = 0; row < dataset.getRowCount(); row++) {
+                writeNumber(out, dataset.getValue(row, column));
+            }
+        }
+    }
+
+    /**
+     * Writes the values of a pie dataset
+     * @param out the stream being digested
+     * @param dataset the dataset
+     * @throws IOException if the stream can't be written to
+     */
+    private void writeDataset(DataOutputStream out, PieDataset dataset) throws IOException {
+
+        out.writeInt(dataset.getItemCount());
+
+        for(int item = 0; item < dataset.getItemCount(); item++) {
+            out.writeUTF(String.valueOf(dataset.getKey(item)));
+            writeNumber(out, dataset.getValue(item));
+        }
+    }
+
+    /**
+     * Writes the values of an xy dataset
+     * @param out the stream being digested
+     * @param dataset the dataset
+     * @throws IOException if the stream can't be written to
+     */
+    private void writeDataset(DataOutputStream out, XYDataset dataset) throws IOException {
+
+        out.writeInt(dataset.getSeriesCount());
+
+        for(int series = 0; series < dataset.getSeriesCount(); series++) {
+
+            out.writeUTF(String.valueOf(dataset.getSeriesKey(series)));
+            out.writeInt(dataset.getItemCount(series));
+
+            for(int item = 0; item < dataset.getItemCount(series); item++) {
+                out.writeDouble(dataset.getXValue(series, item));
+                out.writeDouble(dataset.getYValue(series, item));
+            }
+        }
+    }
+
+    /**
+     * Writes the values and labels of markers
+     * @param out the stream being digested
+     * @param markers the markers, may be null
+     * @throws IOException if the stream can't be written to
+     */
+    private void writeMarkers(DataOutputStream out, Collection<?> markers) throws IOException {
+
+        if(markers == null) {
+            out.writeInt(0);
+            return;
+        }
+
+        out.writeInt(markers.size());
+
+        for(Object marker : markers) {
+
+            out.writeUTF(String.valueOf(((Marker) marker).getLabel()));
+
+            if(marker instanceof ValueMarker) {
+                out.writeDouble(((ValueMarker) marker).getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes a possibly missing number
+     * @param out the stream being digested
+     * @param number the number, may be null
+     * @throws IOException if the stream can't be written to
+     */
+    private void writeNumber(DataOutputStream out, Number number) throws IOException {
+        out.writeDouble(number == null ? Double.NaN : number.doubleValue());
+    }
+
+    /**
+     * Discards everything written to it, only the digest of the data is kept
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -2,51 +2,69 @@ import javafx.util.Pair;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.*;
-import org.jfree.chart.labels.ItemLabelAnchor;
-import org.jfree.chart.labels.ItemLabelPosition;
 import org.jfree.chart.labels.StandardCategoryItemLabelGenerator;
 import org.jfree.chart.plot.CategoryPlot;
-import org.jfree.chart.plot.PiePlot;
 import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.chart.renderer.category.BarRenderer;
+import org.jfree.chart.plot.ValueMarker;
+import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.category.CategoryItemRenderer;
-import org.jfree.data.category.CategoryDataset;
+import org.jfree.chart.renderer.xy.XYAreaRenderer;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.data.general.DefaultPieDataset;
+import org.jfree.data.time.Day;
+import org.jfree.data.time.TimeSeries;
+import org.jfree.data.time.TimeSeriesCollection;
+import org.jfree.ui.RectangleAnchor;
 import org.jfree.ui.TextAnchor;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
-import java.awt.image.RenderedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.BufferedImage;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Creates charts for user statistics
  */
 public class ChartCreator {
 
+    // Size the charts are laid out at, fonts are sized relative to it
+    public static final int CHART_WIDTH = 1920;
+    public static final int CHART_HEIGHT = 1080;
+
+    // Bump when the look of the charts changes, so that cached renders of them are discarded
+    public static final int STYLE_VERSION = 1;
+
     private GroupStatistics statistics;
 
-    private final Font labelFont = new Font("SansSerif", Font.BOLD, 36);
-    private final Font titleFont = new Font("SansSerif", Font.BOLD, 56);
-    private final Font legendFont = new Font("SansSerif", Font.BOLD, 18);
-    private final Font domainFont = new Font("SansSerif", Font.BOLD, 22);
-    private final Font rangeFont = new Font("SansSerif", Font.BOLD, 12);
-    private final Font axisLabelFont = new Font("SansSerif", Font.BOLD, 30);
+    // Fonts and chart templates, shared by every chart creator using the same style
+    private final ChartStyle style;
 
     public ChartCreator(GroupStatistics statistics) {
+        this(statistics, ChartStyle.getDefault());
+    }
+
+    /**
+     * Creates a chart creator that styles its charts with the given style
+     * @param statistics the stats to be charted
+     * @param style the fonts and templates of the charts
+     */
+    public ChartCreator(GroupStatistics statistics, ChartStyle style) {
         this.statistics = statistics;
+        this.style = style;
+    }
+
+    public ChartStyle getStyle() {
+        return style;
     }
 
     /**
      * Creates a chart for hourly messages sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image hourlyMessagesChart() {
+    public JFreeChart hourlyMessagesChart() {
 
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
         int totalMessages = statistics.getMessagesSent();
@@ -60,57 +78,38 @@ public class ChartCreator {
                 "Hour", "Percentage", dataset,
                 PlotOrientation.VERTICAL, false, false, false);
 
-        chart.getTitle().setFont(titleFont);
+        chart.getTitle().setFont(style.getTitleFont());
 
         CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(new Font("SansSerif", Font.BOLD, 16));
-        plot.getDomainAxis().setLabelFont(axisLabelFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-        plot.getRangeAxis().setLabelFont(axisLabelFont);
+        plot.getDomainAxis().setTickLabelFont(style.getHourFont());
+        plot.getDomainAxis().setLabelFont(style.getAxisLabelFont());
+        plot.getRangeAxis().setTickLabelFont(style.getRangeFont());
+        plot.getRangeAxis().setLabelFont(style.getAxisLabelFont());
 
-        return chart.createBufferedImage(1920, 1080);
+        return chart;
     }
 
     /**
      * Creates a chart for daily messages sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image dailyMessagesChart() {
+    public JFreeChart dailyMessagesChart() {
 
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-
-        for(Pair<String, Integer> entry : statistics.getMessagesEachDay()) {
-            dataset.setValue(entry.getValue(), "", entry.getKey());
-        }
-
-        JFreeChart chart = ChartFactory.createBarChart("Messages Each Day",
+        JFreeChart chart = ChartFactory.createTimeSeriesChart("Messages Each Day",
                 "Day", "Number of Messages",
-                dataset, PlotOrientation.VERTICAL, false, false, false);
-
-        chart.getTitle().setFont(titleFont);
-        CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(new Font("SansSerif", Font.BOLD, 0));
+                dailySeries(statistics.getMessagesEachDay()), false, false, false);
 
-        plot.getDomainAxis().setLabelFont(axisLabelFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-        plot.getRangeAxis().setLabelFont(axisLabelFont);
-
-        plot.getDomainAxis().setCategoryMargin(0.0);
-        plot.getDomainAxis().setLowerMargin(0.0);
-        plot.getDomainAxis().setUpperMargin(0.0);
+        chart.getTitle().setFont(style.getTitleFont());
+        setUpDailyPlot((XYPlot) chart.getPlot());
 
-        CategoryItemRenderer renderer = plot.getRenderer();
-        renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
-        renderer.setItemLabelsVisible(false);
-
-        return chart.createBufferedImage(1920, 1080);
+        return chart;
     }
 
     /**
      * Creates a chart for monthly messages sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image monthlyMessagesChart() {
+    public JFreeChart monthlyMessagesChart() {
 
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
@@ -122,83 +121,60 @@ public class ChartCreator {
                 "Month", "Number of Messages",
                 dataset, PlotOrientation.VERTICAL, false, false, false);
 
-        chart.getTitle().setFont(titleFont);
+        chart.getTitle().setFont(style.getTitleFont());
         CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(domainFont);
-        plot.getDomainAxis().setLabelFont(axisLabelFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-        plot.getRangeAxis().setLabelFont(axisLabelFont);
+        plot.getDomainAxis().setTickLabelFont(style.getDomainFont());
+        plot.getDomainAxis().setLabelFont(style.getAxisLabelFont());
+        plot.getRangeAxis().setTickLabelFont(style.getRangeFont());
+        plot.getRangeAxis().setLabelFont(style.getAxisLabelFont());
 
         CategoryItemRenderer renderer = plot.getRenderer();
         renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
         renderer.setItemLabelsVisible(true);
-        renderer.setItemLabelFont( new Font("SansSerif", Font.BOLD, 20));
+        renderer.setItemLabelFont(style.getItemLabelFont());
 
-        return chart.createBufferedImage(1920, 1080);
+        return chart;
     }
 
     /**
      * Creates a chart for the frequency of the words
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image wordFrequencyChart() {
+    public JFreeChart wordFrequencyChart() {
 
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-
-        for(Pair<String, Integer> entry : statistics.getWordStatistics()) {
-            dataset.setValue(entry.getValue(), "", entry.getKey());
-        }
-
-        JFreeChart chart = ChartFactory.createBarChart("\"seni\" Usage Each Day",
+        JFreeChart chart = ChartFactory.createTimeSeriesChart("\"seni\" Usage Each Day",
                 "", "Times Used Per Day",
-                dataset, PlotOrientation.VERTICAL, false, false, false);
-
-        chart.getTitle().setFont(titleFont);
-        CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(new Font("SansSerif", Font.BOLD, 0));
-        plot.getDomainAxis().setLabelFont(axisLabelFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-        plot.getRangeAxis().setLabelFont(axisLabelFont);
-
-        plot.getDomainAxis().setCategoryMargin(0.0);
-        plot.getDomainAxis().setLowerMargin(0.0);
-        plot.getDomainAxis().setUpperMargin(0.0);
-
-        BarRenderer renderer = (BarRenderer) ((CategoryPlot) chart.getPlot()).getRenderer();
-        renderer.setItemLabelGenerator(new ItemGenerator(statistics.getFirstOccurrence()));
-        renderer.setItemLabelsVisible(true);
-        renderer.setItemLabelFont( new Font("SansSerif", Font.BOLD, 14));
-
-        // Change domain label orientation
-        renderer.setPositiveItemLabelPosition(new ItemLabelPosition(
-                ItemLabelAnchor.OUTSIDE2, TextAnchor.BOTTOM_LEFT, TextAnchor.BOTTOM_LEFT, -3.14 / 2));
+                dailySeries(statistics.getWordStatistics()), false, false, false);
 
-        plot.getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        chart.getTitle().setFont(style.getTitleFont());
+        XYPlot plot = (XYPlot) chart.getPlot();
+        setUpDailyPlot(plot);
         plot.getRangeAxis().setStandardTickUnits(NumberAxis.createIntegerTickUnits());
 
         chart.setBackgroundPaint(Color.lightGray);
-        plot.getDomainAxis().setTickLabelFont(new Font("Dialog", Font.PLAIN, 8));
 
-        int skipNth = 0;
+        // Mark the day the word was first used
+        Message firstOccurrence = statistics.getFirstOccurrence();
 
-        // Show only every fourth domain label
-        for(Pair<String, Integer> entry : statistics.getWordStatistics()) {
+        if(firstOccurrence != null) {
 
-            if(skipNth % 4 != 0) {
-                plot.getDomainAxis().setTickLabelPaint(entry.getKey(), Color.lightGray);
-            }
-
-            skipNth++;
+            Date date = new Date(firstOccurrence.getTimestamp());
+            ValueMarker marker = new ValueMarker(new Day(date).getMiddleMillisecond());
+            marker.setLabel(firstOccurrence.getSender() + " " + new SimpleDateFormat("yyyy-MM-dd").format(date));
+            marker.setLabelFont(style.getMarkerFont());
+            marker.setLabelAnchor(RectangleAnchor.TOP_RIGHT);
+            marker.setLabelTextAnchor(TextAnchor.TOP_LEFT);
+            plot.addDomainMarker(marker);
         }
 
-        return chart.createBufferedImage(1920, 1080);
+        return chart;
     }
 
     /**
      * Creates a chart for total message sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image messagesSendChart() {
+    public JFreeChart messagesSendChart() {
 
         DefaultPieDataset dataset = new DefaultPieDataset();
 
@@ -206,20 +182,14 @@ public class ChartCreator {
             dataset.setValue(user, statistics.getUserStats().get(user).getMessagesSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Non-Spam Messages Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Non-Spam Messages Sent", dataset);
     }
 
     /**
      * Creates a chart for total words sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image wordsSendChart() {
+    public JFreeChart wordsSendChart() {
 
         DefaultPieDataset dataset = new DefaultPieDataset();
 
@@ -227,20 +197,14 @@ public class ChartCreator {
             dataset.setValue(user, statistics.getUserStats().get(user).getWordsSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Non-Spam Words Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Non-Spam Words Sent", dataset);
     }
 
     /**
      * Creates a chart for total characters sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image charsSendChart() {
+    public JFreeChart charsSendChart() {
 
         DefaultPieDataset dataset = new DefaultPieDataset();
 
@@ -248,20 +212,14 @@ public class ChartCreator {
             dataset.setValue(user, statistics.getUserStats().get(user).getCharsSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Non-Spam Characters Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Non-Spam Characters Sent", dataset);
     }
 
     /**
      * Creates a chart for spam messages sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image spamMessagesSendChart() {
+    public JFreeChart spamMessagesSendChart() {
 
         DefaultPieDataset dataset = new DefaultPieDataset();
 
@@ -269,40 +227,28 @@ public class ChartCreator {
             dataset.setValue(user, statistics.getUserStats().get(user).getSpamMessagesSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Spam Messages Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Spam Messages Sent", dataset);
     }
 
     /**
      * Creates a chart for spam words sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image spamWordsSendChart() {
+    public JFreeChart spamWordsSendChart() {
         DefaultPieDataset dataset = new DefaultPieDataset();
 
         for(String user : statistics.getUserStats().keySet()) {
             dataset.setValue(user, statistics.getUserStats().get(user).getSpamWordsSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Spam Words Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Spam Words Sent", dataset);
     }
 
     /**
      * Creates a chart for spam characters sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image spamCharsSendChart() {
+    public JFreeChart spamCharsSendChart() {
 
         DefaultPieDataset dataset = new DefaultPieDataset();
 
@@ -310,20 +256,14 @@ public class ChartCreator {
             dataset.setValue(user, statistics.getUserStats().get(user).getSpamCharsSent());
         }
 
-        JFreeChart chart = ChartFactory.createPieChart("Spam Characters Sent", dataset, false, true, false);
-
-        chart.getTitle().setFont(titleFont);
-        PiePlot plot = (PiePlot) chart.getPlot();
-        plot.setLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.pieChart("Spam Characters Sent", dataset);
     }
 
     /**
      * Creates a chart for average length of message
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image averageMessageChart() {
+    public JFreeChart averageMessageChart() {
 
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
@@ -337,29 +277,14 @@ public class ChartCreator {
                     user, "Average Characters Per Message");
         }
 
-        JFreeChart chart = ChartFactory.createBarChart("Average Message", "", "",
-                dataset, PlotOrientation.VERTICAL, true, false, false);
-
-        chart.getTitle().setFont(titleFont);
-        chart.getLegend().setItemFont(legendFont);
-
-        CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(domainFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-
-        CategoryItemRenderer renderer = plot.getRenderer();
-        renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
-        renderer.setItemLabelsVisible(true);
-        renderer.setItemLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.groupedBarChart("Average Message", dataset);
     }
 
     /**
      * Creates a chart for reactions sent
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image reactionsChart() {
+    public JFreeChart reactionsChart() {
 
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
@@ -373,29 +298,14 @@ public class ChartCreator {
                     user, "Reactions received");
         }
 
-        JFreeChart chart = ChartFactory.createBarChart("Reactions", "", "",
-                dataset, PlotOrientation.VERTICAL, true, false, false);
-
-        chart.getTitle().setFont(titleFont);
-        chart.getLegend().setItemFont(legendFont);
-
-        CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(domainFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-
-        CategoryItemRenderer renderer = plot.getRenderer();
-        renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
-        renderer.setItemLabelsVisible(true);
-        renderer.setItemLabelFont(labelFont);
-
-        return chart.createBufferedImage(1920, 1080);
+        return style.groupedBarChart("Reactions", dataset);
     }
 
     /**
      * Creates a chart for actions made
-     * @return the Image object of the chart
+     * @return the chart
      */
-    public Image actionsMadeChart() {
+    public JFreeChart actionsMadeChart() {
 
         DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
@@ -420,41 +330,52 @@ public class ChartCreator {
         }
 
 
-        JFreeChart chart = ChartFactory.createBarChart("Action Made", "", "",
-                dataset, PlotOrientation.VERTICAL, true, false, false);
-
-        chart.getTitle().setFont(titleFont);
-        chart.getLegend().setItemFont(legendFont);
-
-        CategoryPlot plot = (CategoryPlot)chart.getPlot();
-        plot.getDomainAxis().setTickLabelFont(domainFont);
-        plot.getRangeAxis().setTickLabelFont(rangeFont);
-
-        CategoryItemRenderer renderer = plot.getRenderer();
-        renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
-        renderer.setItemLabelsVisible(true);
-        renderer.setItemLabelFont(labelFont);
+        return style.groupedBarChart("Action Made", dataset);
+    }
 
-        return chart.createBufferedImage(1920, 1080);
+    /**
+     * Rasterizes a chart
+     * @param chart the chart to be rasterized
+     * @return the Image object of the chart
+     */
+    public BufferedImage createImage(JFreeChart chart) {
+        return chart.createBufferedImage(CHART_WIDTH, CHART_HEIGHT);
     }
 
     /**
-     * Converts image to byte array
-     * @param image image to be converted
-     * @return byte array representing the given image
+     * Converts a per day series to a time series with at most one point per horizontal pixel
+     * @param series day and value pairs, sorted by day
+     * @return the dataset of the series
      */
-    public byte[] imageAsByteArray(Image image) {
+    private TimeSeriesCollection dailySeries(List<Pair<String, Integer>> series) {
 
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        TimeSeries timeSeries = new TimeSeries("", Day.class);
 
-        try {
-            ImageIO.write((RenderedImage) image, "png", byteStream);
-            return byteStream.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
+        for(Pair<String, Integer> entry : SeriesDownsampler.minMax(series, CHART_WIDTH)) {
+
+            // Keys are "yyyy-MM-dd", parsed by hand as Day.parseDay shares a date format between threads
+            String date = entry.getKey();
+            Day day = new Day(Integer.parseInt(date.substring(8, 10)),
+                    Integer.parseInt(date.substring(5, 7)), Integer.parseInt(date.substring(0, 4)));
+            timeSeries.add(day, entry.getValue(), false);
         }
 
-        return null;
+        return new TimeSeriesCollection(timeSeries);
+    }
+
+    /**
+     * Applies the common style of the per day charts
+     * @param plot the plot of the chart
+     */
+    private void setUpDailyPlot(XYPlot plot) {
+
+        plot.setRenderer(new XYAreaRenderer());
+        plot.getDomainAxis().setTickLabelFont(style.getDomainFont());
+        plot.getDomainAxis().setLabelFont(style.getAxisLabelFont());
+        plot.getDomainAxis().setLowerMargin(0.0);
+        plot.getDomainAxis().setUpperMargin(0.0);
+        plot.getRangeAxis().setTickLabelFont(style.getRangeFont());
+        plot.getRangeAxis().setLabelFont(style.getAxisLabelFont());
     }
 
     /**
@@ -473,23 +394,4 @@ public class ChartCreator {
         bd = bd.setScale(places, RoundingMode.HALF_UP);
         return bd.doubleValue();
     }
-
-    private class ItemGenerator extends StandardCategoryItemLabelGenerator {
-
-        private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        private MessageFormat message;
-
-        private ItemGenerator(MessageFormat message) {
-            this.message = message;
-        }
-
-        @Override
-        public String generateLabel(CategoryDataset dataset, int row, int column) {
-
-            if(dataset.getColumnKey(column).equals(dateFormat.format(new Date(message.getTimestamp())))) {
-                return message.getSender() + " " + dataset.getColumnKey(column);
-            }
-            return "";
-        }
-    }
 }
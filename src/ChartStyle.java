@@ -0,0 +1,144 @@
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.labels.StandardCategoryItemLabelGenerator;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PiePlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.renderer.category.CategoryItemRenderer;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.PieDataset;
+
+import java.awt.*;
+
+/**
+ * Fonts and templates of the charts. Immutable, so one style is shared by every chart of every report
+ */
+public final class ChartStyle {
+
+    private static final ChartStyle DEFAULT = new ChartStyle("SansSerif");
+
+    private final String family;
+
+    private final Font labelFont;
+    private final Font titleFont;
+    private final Font legendFont;
+    private final Font domainFont;
+    private final Font rangeFont;
+    private final Font axisLabelFont;
+    private final Font hourFont;
+    private final Font itemLabelFont;
+    private final Font markerFont;
+
+    /**
+     * Creates a style using a font family
+     * @param family the family of every font of the charts
+     */
+    public ChartStyle(String family) {
+
+        this.family = family;
+
+        labelFont = new Font(family, Font.BOLD, 36);
+        titleFont = new Font(family, Font.BOLD, 56);
+        legendFont = new Font(family, Font.BOLD, 18);
+        domainFont = new Font(family, Font.BOLD, 22);
+        rangeFont = new Font(family, Font.BOLD, 12);
+        axisLabelFont = new Font(family, Font.BOLD, 30);
+        hourFont = new Font(family, Font.BOLD, 16);
+        itemLabelFont = new Font(family, Font.BOLD, 20);
+        markerFont = new Font(family, Font.BOLD, 14);
+    }
+
+    /**
+     * Returns the style charts are created with unless another one is given
+     * @return the default style
+     */
+    public static ChartStyle getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a pie chart with a slice for each user
+     * @param title the title of the chart
+     * @param dataset the value of each user
+     * @return the chart
+     */
+    public JFreeChart pieChart(String title, PieDataset dataset) {
+
+        JFreeChart chart = ChartFactory.createPieChart(title, dataset, false, true, false);
+
+        chart.getTitle().setFont(titleFont);
+        PiePlot plot = (PiePlot) chart.getPlot();
+        plot.setLabelFont(labelFont);
+
+        return chart;
+    }
+
+    /**
+     * Creates a bar chart with a labelled bar for each user in every category
+     * @param title the title of the chart
+     * @param dataset the values with users as rows
+     * @return the chart
+     */
+    public JFreeChart groupedBarChart(String title, CategoryDataset dataset) {
+
+        JFreeChart chart = ChartFactory.createBarChart(title, "", "",
+                dataset, PlotOrientation.VERTICAL, true, false, false);
+
+        chart.getTitle().setFont(titleFont);
+        chart.getLegend().setItemFont(legendFont);
+
+        CategoryPlot plot = (CategoryPlot)chart.getPlot();
+        plot.getDomainAxis().setTickLabelFont(domainFont);
+        plot.getRangeAxis().setTickLabelFont(rangeFont);
+
+        CategoryItemRenderer renderer = plot.getRenderer();
+        renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator());
+        renderer.setItemLabelsVisible(true);
+        renderer.setItemLabelFont(labelFont);
+
+        return chart;
+    }
+
+    /*
+     * Getters
+     */
+    public String getFamily() {
+        return family;
+    }
+
+    public Font getLabelFont() {
+        return labelFont;
+    }
+
+    public Font getTitleFont() {
+        return titleFont;
+    }
+
+    public Font getLegendFont() {
+        return legendFont;
+    }
+
+    public Font getDomainFont() {
+        return domainFont;
+    }
+
+    public Font getRangeFont() {
+        return rangeFont;
+    }
+
+    public Font getAxisLabelFont() {
+        return axisLabelFont;
+    }
+
+    public Font getHourFont() {
+        return hourFont;
+    }
+
+    public Font getItemLabelFont() {
+        return itemLabelFont;
+    }
+
+    public Font getMarkerFont() {
+        return markerFont;
+    }
+}
@@ -0,0 +1,693 @@
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Generates synthetic Messenger exports for testing how the analyser scales. The messages are written
+ * in Facebook's format and escaping, as they're streamed, so exports of any size can be generated.
+ * Everything is generated from a seed, so the same settings always give the same export
+ */
+public class ExportGenerator {
+
+    // Facebook splits exports into files of this many messages, the newest in message_1.json
+    public static final int MESSAGES_PER_FILE = 10000;
+
+    // Keywords and name aliases are written here, away from the message files the analyser reads
+    public static final String RULES_DIRECTORY = "rules";
+    public static final String KEYWORDS_FILE = "keywords.txt";
+    public static final String ALIASES_FILE = "nameAliases.json";
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final String[] FIRST_NAMES = {"Jonas", "Rūta", "Šarūnas", "Eglė", "Mantas", "Žydrė", "Tomas",
+            "Gintarė", "Ąžuolas", "Aistė", "Paulius", "Ieva"};
+    private static final String[] LAST_NAMES = {"Kazlauskas", "Jankauskaitė", "Petrauskas", "Stankevičiūtė",
+            "Žukauskas", "Vasiliauskaitė", "Butkus", "Urbonaitė"};
+    private static final String[] NICKNAMES = {"Žvirblis", "Kiškis", "Ežiukas", "Šarka", "Vilkas", "Lapė", "Meška"};
+    private static final String[] GROUP_NAMES = {"Kiemas", "Šeštadienio klubas", "Senjorai", "Kelionė į Nidą"};
+    private static final String[] THEMES = {"Rožinė", "Jūra", "Citrina", "Levanda"};
+
+    private static final String[] SYLLABLES = {"a", "ka", "ma", "ša", "tė", "ro", "žu", "li", "na", "či", "vą",
+            "de", "pu", "si", "ė", "to", "ry", "gu", "lę", "ko"};
+
+    // Reactions and their weights, emoji outside the basic plane are escaped as four bytes
+    private static final String[] REACTIONS = {"❤", "😆", "😮", "😢", "😠", "👍", "👎"};
+    private static final int[] REACTION_WEIGHTS = {30, 25, 10, 8, 4, 20, 3};
+
+    // Share of messages sent in each hour of the day
+    private static final int[] HOUR_WEIGHTS = {3, 2, 1, 1, 1, 1, 2, 4, 6, 7, 8, 9, 10, 9, 9, 10, 11, 12, 14, 16,
+            17, 16, 12, 7};
+
+    // Word the analyser tracks the daily use of, kept common so its chart has data
+    private static final String TRACKED_WORD = "seni";
+    private static final int TRACKED_WORD_RANK = 40;
+
+    private final long seed;
+
+    private int participants = 5;
+    private long messages = 10000;
+    private int days = 3 * 365;
+    private long start = 1514764800000L;
+
+    private int vocabularySize = 5000;
+    private double zipfExponent = 1.07;
+
+    private double spamShare = 0.05;
+    private double infoShare = 0.005;
+    private double photoShare = 0.03;
+    private double reactionShare = 0.1;
+
+    /**
+     * Creates a generator
+     * @param seed the seed everything is generated from
+     */
+    public ExportGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes an export to a directory: the message files, and the keywords and name aliases the analyser needs
+     * to recognise its automatically generated messages in the rules directory within it
+     * @param directory the directory to be written to
+     * @return the message files, newest messages first
+     * @throws IOException if the export couldn't be written
+     */
+    public List<File> generate(File directory) throws IOException {
+
+        File rules = new File(directory, RULES_DIRECTORY);
+
+        if(!rules.isDirectory() && !rules.mkdirs()) {
+            throw new IOException("could not create directory " + rules);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+
+        List<String> names = createNames();
+        List<List<String>> aliases = createAliases(names);
+        String[] vocabulary = createVocabulary(random);
+
+        writeRules(rules, names, aliases);
+
+        double[] wordWeights = new double[vocabulary.length];
+
+        for(int rank = 0; rank < wordWeights.length; rank++) {
+            wordWeights[rank] = 1 / Math.pow(rank + 1, zipfExponent);
+        }
+
+        // Some participants talk a lot more than others
+        double[] senderWeights = new double[names.size()];
+
+        for(int i = 0; i < senderWeights.length; i++) {
+            senderWeights[i] = 1 / Math.pow(i + 1, 0.8);
+        }
+
+        Sampler words = new Sampler(wordWeights);
+        Sampler senders = new Sampler(senderWeights);
+        Sampler hours = new Sampler(toDoubles(HOUR_WEIGHTS));
+        Sampler reactions = new Sampler(toDoubles(REACTION_WEIGHTS));
+
+        long[] dailyMessages = spreadOverDays(random);
+        String title = GROUP_NAMES[0];
+
+        List<File> files = new ArrayList<>();
+        Writer writer = null;
+
+        // Messages left in the current spam burst, and what it repeats
+        int burstLeft = 0;
+        int burstSender = 0;
+        String burstContent = null;
+
+        long written = 0;
+
+        try {
+
+            // Exports list the newest message first, so days are generated from the last
+            for(int day = days - 1; day >= 0; day--) {
+
+                long[] timestamps = new long[(int) dailyMessages[day]];
+
+                for(int i = 0; i < timestamps.length; i++) {
+                    timestamps[i] = start + day * DAY + hours.next(random) * DAY / 24 + random.nextLong(DAY / 24);
+                }
+
+                Arrays.sort(timestamps);
+
+                for(int i = timestamps.length - 1; i >= 0; i--) {
+
+                    if(written % MESSAGES_PER_FILE == 0) {
+
+                        if(writer != null) {
+                            writeFooter(writer, title);
+                            writer.close();
+                        }
+
+                        File file = new File(directory, "message_" + (files.size() + 1) + ".json");
+                        files.add(file);
+
+                        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                StandardCharsets.UTF_8), 1 << 16);
+                        writeHeader(writer, names);
+                    }
+
+                    if(burstLeft == 0 && random.nextDouble() < spamShare / 5) {
+                        burstLeft = 3 + random.nextInt(5);
+                        burstSender = senders.next(random);
+                        burstContent = createSpam(random, vocabulary, words);
+                    }
+
+                    int sender;
+                    String content = null;
+                    String photo = null;
+
+                    if(burstLeft > 0) {
+                        sender = burstSender;
+                        content = burstContent;
+                        burstLeft--;
+                    }
+                    else if(random.nextDouble() < infoShare) {
+                        sender = senders.next(random);
+                        content = createInfo(random, aliases.get(sender));
+                    }
+                    else if(random.nextDouble() < photoShare) {
+                        sender = senders.next(random);
+                        photo = "messages/inbox/photos/" + timestamps[i] + "_" + written + ".jpg";
+                    }
+                    else {
+                        sender = senders.next(random);
+                        content = createSentence(random, vocabulary, words);
+                    }
+
+                    writer.write(written % MESSAGES_PER_FILE == 0 ? "\n" : ",\n");
+                    writer.write("    {\n      \"sender_name\": \"");
+                    writer.write(escape(names.get(sender)));
+                    writer.write("\",\n      \"timestamp_ms\": ");
+                    writer.write(Long.toString(timestamps[i]));
+
+                    if(content != null) {
+                        writer.write(",\n      \"content\": \"");
+                        writer.write(escape(content));
+                        writer.write("\"");
+                    }
+
+                    if(photo != null) {
+                        writer.write(",\n      \"photos\": [\n        {\n          \"uri\": \"");
+                        writer.write(photo);
+                        writer.write("\",\n          \"creation_timestamp\": ");
+                        writer.write(Long.toString(timestamps[i] / 1000));
+                        writer.write("\n        }\n      ]");
+                    }
+
+                    if(random.nextDouble() < reactionShare) {
+                        writeReactions(writer, random, names, sender, reactions);
+                    }
+
+                    writer.write(",\n      \"type\": \"Generic\"\n    }");
+                    written++;
+                }
+            }
+
+            if(writer != null) {
+                writeFooter(writer, title);
+            }
+
+        } finally {
+
+            if(writer != null) {
+                writer.close();
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Splits the messages between days, with busy and quiet days
+     * @param random the source of the split
+     * @return the number of messages sent each day
+     */
+    private long[] spreadOverDays(SplittableRandom random) {
+
+        double[] activity = new double[days];
+        double total = 0;
+
+        for(int day = 0; day < days; day++) {
+
+            // Weekends are busier, and some days a lot busier
+            double weekday = day % 7 >= 5 ? 1.4 : 1.0;
+            activity[day] = weekday * (0.2 + random.nextDouble() * 1.6) * (random.nextInt(30) == 0 ? 4 : 1);
+            total += activity[day];
+        }
+
+        long[] dailyMessages = new long[days];
+        long assigned = 0;
+
+        for(int day = 0; day < days; day++) {
+            dailyMessages[day] = (long) (messages * activity[day] / total);
+            assigned += dailyMessages[day];
+        }
+
+        for(int day = 0; assigned < messages; day = (day + 1) % days) {
+            dailyMessages[day]++;
+            assigned++;
+        }
+
+        return dailyMessages;
+    }
+
+    /**
+     * Builds the full names of the participants
+     * @return the names
+     */
+    private List<String> createNames() {
+
+        List<String> names = new ArrayList<>();
+
+        for(int i = 0; i < participants; i++) {
+
+            String name = FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[i % LAST_NAMES.length];
+            int round = i / (FIRST_NAMES.length * LAST_NAMES.length);
+
+            names.add(round == 0 ? name : name + " " + (round + 1));
+        }
+
+        return names;
+    }
+
+    /**
+     * Builds the other names each participant goes by in automatically generated messages
+     * @param names the full names of the participants
+     * @return the aliases of each participant
+     */
+    private List<List<String>> createAliases(List<String> names) {
+
+        List<List<String>> aliases = new ArrayList<>();
+
+        for(int i = 0; i < names.size(); i++) {
+
+            String[] parts = names.get(i).split(" ");
+            List<String> userAliases = new ArrayList<>();
+
+            // First names are shared, so only the first user with a first name goes by it alone
+            if(i < FIRST_NAMES.length) {
+                userAliases.add(parts[0]);
+            }
+
+            userAliases.add(parts[0] + " " + parts[1].charAt(0) + "." + (parts.length > 2 ? " " + parts[2] : ""));
+            userAliases.add(NICKNAMES[i % NICKNAMES.length] + " " + (i + 1));
+
+            aliases.add(userAliases);
+        }
+
+        return aliases;
+    }
+
+    /**
+     * Builds the words messages are made of, ordered from the most common
+     * @param random the source of the words
+     * @return the words
+     */
+    private String[] createVocabulary(SplittableRandom random) {
+
+        Set<String> words = new LinkedHashSet<>();
+
+        // Bounded so that a vocabulary too large for the syllables still ends
+        for(int attempt = 0; words.size() < vocabularySize && attempt < vocabularySize * 100; attempt++) {
+
+            int length = 2 + random.nextInt(10);
+            StringBuilder word = new StringBuilder();
+
+            while(word.length() < length) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+
+            if(!word.toString().equals(TRACKED_WORD)) {
+                words.add(word.substring(0, length));
+            }
+        }
+
+        List<String> vocabulary = new ArrayList<>(words);
+        vocabulary.add(Math.min(TRACKED_WORD_RANK, vocabulary.size()), TRACKED_WORD);
+
+        return vocabulary.toArray(new String[0]);
+    }
+
+    /**
+     * Builds an ordinary message
+     * @param random the source of the message
+     * @param vocabulary the words
+     * @param words picks words by their rank
+     * @return the message
+     */
+    private String createSentence(SplittableRandom random, String[] vocabulary, Sampler words) {
+
+        // Mostly short messages with the occasional long one
+        int length = 1 + (int) Math.min(40, -Math.log(1 - random.nextDouble()) * 5);
+        StringBuilder sentence = new StringBuilder();
+
+        for(int i = 0; i < length; i++) {
+
+            if(i > 0) {
+                sentence.append(' ');
+            }
+
+            sentence.append(vocabulary[words.next(random)]);
+        }
+
+        return sentence.toString();
+    }
+
+    /**
+     * Builds the message repeated in a spam burst, of a kind each of the analyser's spam checks catches
+     * @param random the source of the message
+     * @param vocabulary the words
+     * @param words picks words by their rank
+     * @return the message
+     */
+    private String createSpam(SplittableRandom random, String[] vocabulary, Sampler words) {
+
+        String word = vocabulary[words.next(random)];
+
+        switch(random.nextInt(3)) {
+
+            case 0 :
+                return String.join("", Collections.nCopies(81 + random.nextInt(60), word.substring(0, 1)));
+            case 1 :
+                return String.join(" ", Collections.nCopies(3 + random.nextInt(6), word));
+            default :
+                return createSentence(random, vocabulary, words) + " " + word + " " + word;
+        }
+    }
+
+    /**
+     * Builds an automatically generated message, referring to its sender by one of their aliases
+     * @param random the source of the message
+     * @param aliases the aliases of the sender
+     * @return the message
+     */
+    private String createInfo(SplittableRandom random, List<String> aliases) {
+
+        String alias = aliases.get(random.nextInt(aliases.size()));
+
+        switch(random.nextInt(4)) {
+
+            case 0 :
+                return alias + " pakeitė savo pravardę į " + NICKNAMES[random.nextInt(NICKNAMES.length)] + ".";
+            case 1 :
+                return alias + " pavadino grupę " + GROUP_NAMES[random.nextInt(GROUP_NAMES.length)] + ".";
+            case 2 :
+                return alias + " pakeitė grupės nuotrauką.";
+            default :
+                return alias + " changed the chat theme to " + THEMES[random.nextInt(THEMES.length)] + ".";
+        }
+    }
+
+    /**
+     * Writes the reactions of a message, from participants other than its sender
+     * @param writer the message file
+     * @param random the source of the reactions
+     * @param names the names of the participants
+     * @param sender the index of the sender
+     * @param reactions picks reactions by their weight
+     * @throws IOException if the file couldn't be written to
+     */
+    private void writeReactions(Writer writer, SplittableRandom random, List<String> names, int sender,
+                                Sampler reactions) throws IOException {
+
+        if(names.size() < 2) {
+            return;
+        }
+
+        int count = 1 + random.nextInt(Math.min(3, names.size() - 1));
+        writer.write(",\n      \"reactions\": [");
+
+        for(int i = 0; i < count; i++) {
+
+            int actor = (sender + 1 + random.nextInt(names.size() - 1)) % names.size();
+
+            writer.write(i == 0 ? "\n" : ",\n");
+            writer.write("        {\n          \"reaction\": \"");
+            writer.write(escape(REACTIONS[reactions.next(random)]));
+            writer.write("\",\n          \"actor\": \"");
+            writer.write(escape(names.get(actor)));
+            writer.write("\"\n        }");
+        }
+
+        writer.write("\n      ]");
+    }
+
+    /**
+     * Writes the start of a message file, up to its first message
+     * @param writer the message file
+     * @param names the names of the participants
+     * @throws IOException if the file couldn't be written to
+     */
+    private void writeHeader(Writer writer, List<String> names) throws IOException {
+
+        writer.write("{\n  \"participants\": [");
+
+        for(int i = 0; i < names.size(); i++) {
+            writer.write(i == 0 ? "\n" : ",\n");
+            writer.write("    {\n      \"name\": \"" + escape(names.get(i)) + "\"\n    }");
+        }
+
+        writer.write("\n  ],\n  \"messages\": [");
+    }
+
+    /**
+     * Writes the end of a message file, after its last message
+     * @param writer the message file
+     * @param title the name of the group
+     * @throws IOException if the file couldn't be written to
+     */
+    private void writeFooter(Writer writer, String title) throws IOException {
+
+        writer.write("\n  ],\n  \"title\": \"" + escape(title) + "\",\n  \"is_still_participant\": true,\n");
+        writer.write("  \"thread_type\": \"RegularGroup\",\n  \"thread_path\": \"inbox/generated\"\n}");
+    }
+
+    /**
+     * Writes the keywords of the generated automatic messages and the aliases of each participant
+     * @param directory the directory to be written to
+     * @param names the names of the participants
+     * @param aliases the aliases of each participant
+     * @throws IOException if the files couldn't be written
+     */
+    @SuppressWarnings("unchecked")
+    private void writeRules(File directory, List<String> names, List<List<String>> aliases) throws IOException {
+
+        List<String> keywords = new ArrayList<>(RuleSet.NAME_CHANGE_KEYWORDS);
+        keywords.addAll(RuleSet.GROUP_CHANGE_KEYWORDS);
+        keywords.addAll(RuleSet.PHOTO_CHANGE_KEYWORDS);
+        keywords.addAll(RuleSet.THEME_CHANGE_KEYWORDS);
+
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, KEYWORDS_FILE)),
+                StandardCharsets.UTF_8)) {
+            writer.write(String.join("\n", keywords));
+        }
+
+        JSONArray users = new JSONArray();
+
+        for(int i = 0; i < names.size(); i++) {
+
+            JSONArray userAliases = new JSONArray();
+
+            for(String alias : aliases.get(i)) {
+
+                JSONObject aliasObject = new JSONObject();
+                aliasObject.put("alias", alias);
+                userAliases.add(aliasObject);
+            }
+
+            JSONObject user = new JSONObject();
+            user.put("name", names.get(i));
+            user.put("aliases", userAliases);
+            users.add(user);
+        }
+
+        JSONObject data = new JSONObject();
+        data.put("users", users);
+
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, ALIASES_FILE)),
+                StandardCharsets.UTF_8)) {
+            writer.write(data.toJSONString());
+        }
+    }
+
+    /**
+     * Escapes text the way Facebook does, writing each non ASCII character as its UTF-8 bytes
+     * @param text the text to be escaped
+     * @return the escaped text
+     */
+    static String escape(String text) {
+
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+
+        for(int i = 0; i < text.length(); i++) {
+
+            char ch = text.charAt(i);
+
+            if(ch == '"' || ch == '\\') {
+                escaped.append('\\').append(ch);
+            }
+            else if(ch < 0x20) {
+                appendByte(escaped, ch);
+            }
+            else if(ch < 0x80) {
+                escaped.append(ch);
+            }
+            else {
+
+                int length = Character.isHighSurrogate(ch) && i + 1 < text.length() ? 2 : 1;
+
+                for(byte b : text.substring(i, i + length).getBytes(StandardCharsets.UTF_8)) {
+                    appendByte(escaped, b & 0xff);
+                }
+
+                i += length - 1;
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    /**
+     * Appends a byte as a unicode escape
+     * @param builder the text being escaped
+     * @param value the byte
+     */
+    private static void appendByte(StringBuilder builder, int value) {
+
+        String hex = "0123456789abcdef";
+        builder.append("\\u00").append(hex.charAt(value >> 4)).append(hex.charAt(value & 0xf));
+    }
+
+    /**
+     * Converts weights to doubles
+     * @param weights the weights
+     * @return the weights as doubles
+     */
+    private static double[] toDoubles(int[] weights) {
+
+        double[] doubles = new double[weights.length];
+
+        for(int i = 0; i < weights.length; i++) {
+            doubles[i] = weights[i];
+        }
+
+        return doubles;
+    }
+
+    /*
+     * Setters
+     */
+    public void setParticipants(int participants) {
+        this.participants = participants;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    public void setDays(int days) {
+        this.days = days;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public void setVocabularySize(int vocabularySize) {
+        this.vocabularySize = vocabularySize;
+    }
+
+    public void setZipfExponent(double zipfExponent) {
+        this.zipfExponent = zipfExponent;
+    }
+
+    public void setSpamShare(double spamShare) {
+        this.spamShare = spamShare;
+    }
+
+    public void setInfoShare(double infoShare) {
+        this.infoShare = infoShare;
+    }
+
+    public void setPhotoShare(double photoShare) {
+        this.photoShare = photoShare;
+    }
+
+    public void setReactionShare(double reactionShare) {
+        this.reactionShare = reactionShare;
+    }
+
+    /**
+     * Picks indices with probabilities proportional to their weights
+     */
+    private static class Sampler {
+
+        private final double[] cumulative;
+
+        /**
+         * Creates a sampler
+         * @param weights the weight of each index
+         */
+        Sampler(double[] weights) {
+
+            cumulative = new double[weights.length];
+            double sum = 0;
+
+            for(int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum;
+            }
+        }
+
+        /**
+         * Picks an index
+         * @param random the source of the pick
+         * @return the index
+         */
+        int next(SplittableRandom random) {
+
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+            return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * Generates an export. Arguments: directory, number of messages, and optionally the number of
+     * participants and the seed
+     * @param args the arguments
+     */
+    public static void main(String[] args) {
+
+        if(args.length < 2) {
+            System.err.println("usage: ExportGenerator <directory> <messages> [participants] [seed]");
+            return;
+        }
+
+        ExportGenerator generator = new ExportGenerator(args.length > 3 ? Long.parseLong(args[3]) : 1);
+        generator.setMessages(Long.parseLong(args[1]));
+
+        if(args.length > 2) {
+            generator.setParticipants(Integer.parseInt(args[2]));
+        }
+
+        try {
+
+            File directory = new File(args[0]);
+            List<File> files = generator.generate(directory);
+            File rules = new File(directory, RULES_DIRECTORY);
+
+            System.out.println("wrote " + files.size() + " message files, analyse them with -D"
+                    + RuleSet.KEYWORDS_PROPERTY + "=" + new File(rules, KEYWORDS_FILE) + " -D"
+                    + RuleSet.ALIASES_PROPERTY + "=" + new File(rules, ALIASES_FILE));
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
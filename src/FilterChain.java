@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies a message as spam if any of its checks does. The checks are reordered as batches of evaluated
+ * messages are counted, so that cheap checks that reject many messages run first
+ */
+public class FilterChain {
+
+    // Number of evaluations between reorderings of the checks
+    private static final int REORDER_INTERVAL = 4096;
+
+    // One in this many evaluations is timed, timing each one would cost more than the cheapest checks
+    private static final int TIMING_INTERVAL = 64;
+
+    // Lower bound for selectivity so that checks which never reject are still ordered by cost
+    private static final double MIN_SELECTIVITY = 0.0001;
+
+    // Checks in the order they are currently evaluated, replaced as a whole when reordered
+    private volatile Link[] links = new Link[0];
+
+    // Evaluations counted so far, added to once per batch so the threads evaluating batches don't contend on it
+    private final AtomicLong evaluations = new AtomicLong();
+
+    /**
+     * Adds a check to the end of the chain
+     * @param name the name the check's statistics are reported under
+     * @param check the check to be added
+     */
+    public synchronized void add(String name, SpamCheck check) {
+
+        Link[] newLinks = Arrays.copyOf(links, links.length + 1);
+        newLinks[links.length] = new Link(check, new StageStatistics(name));
+        links = newLinks;
+    }
+
+    /**
+     * Tests if a message is considered as spam by any of the checks
+     * @param message the message to be tested
+     * @param sample past and future messages
+     * @return true if message is spam, false otherwise
+     */
+    public boolean isSpam(String message, String[] sample) {
+
+        // Timed evaluations stand for the ones that aren't, so their time is scaled up accordingly
+        boolean timed = ThreadLocalRandom.current().nextInt(TIMING_INTERVAL) == 0;
+
+        for(Link link : links) {
+
+            long start = timed ? System.nanoTime() : 0;
+            boolean spam = link.check.isSpam(message, sample);
+            link.statistics.record(timed ? TIMING_INTERVAL * (System.nanoTime() - start) : 0, spam);
+
+            if(spam) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts a batch of evaluated messages, reordering the checks each time the count passes a multiple
+     * of the reordering interval
+     * @param evaluated the number of messages evaluated in the batch
+     */
+    public void endBatch(int evaluated) {
+
+        long total = evaluations.addAndGet(evaluated);
+
+        if(total / REORDER_INTERVAL != (total - evaluated) / REORDER_INTERVAL) {
+            reorder();
+        }
+    }
+
+    /**
+     * Orders the checks by their average cost per rejected message, cheapest first
+     */
+    private synchronized void reorder() {
+
+        Link[] newLinks = links.clone();
+        Arrays.sort(newLinks, Comparator.comparingDouble(Link::rank));
+        links = newLinks;
+    }
+
+    /**
+     * Returns the statistics of every check in the order they are currently evaluated
+     * @return the statistics of the checks
+     */
+    public List<StageStatistics> getStatistics() {
+
+        List<StageStatistics> statistics = new ArrayList<>();
+
+        for(Link link : links) {
+            statistics.add(link.statistics);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * A check together with its statistics
+     */
+    private static class Link {
+
+        private final SpamCheck check;
+        private final StageStatistics statistics;
+
+        private Link(SpamCheck check, StageStatistics statistics) {
+            this.check = check;
+            this.statistics = statistics;
+        }
+
+        private double rank() {
+            return statistics.getAverageNanos() / Math.max(statistics.getSelectivity(), MIN_SELECTIVITY);
+        }
+    }
+}
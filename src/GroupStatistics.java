@@ -8,7 +8,7 @@ import java.util.*;
 public class GroupStatistics {
 
     // Tracks first occurrence of word being analysed
-    private MessageFormat firstOccurrence;
+    private Message firstOccurrence;
     private String creationDate;
     private String statCreationDate;
     private int period;
@@ -22,6 +22,9 @@ public class GroupStatistics {
     private List<Pair<String, Integer>> messagesEachMonth = new ArrayList<>();
     private List<Pair<String, Integer>> wordStatistics = new ArrayList<>();
 
+    // Statistics of any range of days
+    private TimeRangeIndex timeRangeIndex;
+
     /**
      * Creates group statistics for specified users in the group
      * @param names the names of the users who's statistics will be analysed
@@ -105,14 +108,22 @@ public class GroupStatistics {
         this.hourlyMessages = hourlyMessages;
     }
 
-    public MessageFormat getFirstOccurrence() {
+    public Message getFirstOccurrence() {
         return firstOccurrence;
     }
 
-    public void setFirstOccurrence(MessageFormat firstOccurrence) {
+    public void setFirstOccurrence(Message firstOccurrence) {
         this.firstOccurrence = firstOccurrence;
     }
 
+    public TimeRangeIndex getTimeRangeIndex() {
+        return timeRangeIndex;
+    }
+
+    public void setTimeRangeIndex(TimeRangeIndex timeRangeIndex) {
+        this.timeRangeIndex = timeRangeIndex;
+    }
+
     public String getCreationDate() {
         return creationDate;
     }
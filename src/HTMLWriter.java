@@ -0,0 +1,324 @@
+import javafx.util.Pair;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the statistics as pre-aggregated JSON together with a static HTML viewer that draws the charts
+ */
+public class HTMLWriter {
+
+    public static final String OUTPUT_PROPERTY = "msgbot.htmlReport";
+
+    // Viewer page the summary is inlined into, kept next to this class
+    private static final String TEMPLATE = "report.html";
+    private static final String DATA_MARKER = "/*REPORT_DATA*/";
+
+    private static final int DAYS_PER_WEEK = 7;
+
+    private GroupStatistics statistics;
+
+    /**
+     * Creates an html writer using the statistics to be written
+     * @param statistics the stats to be written
+     */
+    public HTMLWriter(GroupStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Writes the report to a directory: the viewer with the summary inlined, so it opens without a server,
+     * the summary on its own, and the per day series the viewer only loads when it's zoomed in to days
+     * @param directory the directory to be written to
+     * @throws IOException if the report couldn't be written
+     */
+    public void writeReport(File directory) throws IOException {
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create directory " + directory);
+        }
+
+        // json-simple escapes "/", so the summary can't close the script it's inlined into
+        String summary = getSummary().toJSONString();
+
+        // Scripts can be loaded from the file system where requests for json can't, so the series is wrapped in a call
+        write(new File(directory, "report.json"), summary);
+        write(new File(directory, "daily.js"), "loadDaily(" + getDailySeries().toJSONString() + ");\n");
+        write(new File(directory, "index.html"), readTemplate().replace(DATA_MARKER, summary));
+    }
+
+    /**
+     * Builds everything the viewer shows before it's zoomed in to days
+     * @return the summary
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject getSummary() {
+
+        JSONObject summary = new JSONObject();
+        summary.put("created", statistics.getCreationDate());
+        summary.put("generated", statistics.getStatCreationDate());
+        summary.put("period", statistics.getPeriod());
+
+        JSONArray groupNames = new JSONArray();
+        groupNames.addAll(statistics.getGroupNames());
+        summary.put("groupNames", groupNames);
+
+        JSONArray users = new JSONArray();
+
+        for(Map.Entry<String, UserStatistics> entry : statistics.getUserStats().entrySet()) {
+            users.add(getUser(entry.getKey(), entry.getValue()));
+        }
+
+        summary.put("users", users);
+
+        JSONArray hourly = new JSONArray();
+
+        for(Pair<Integer, Integer> entry : statistics.getHourlyMessages()) {
+            hourly.add(entry.getValue());
+        }
+
+        summary.put("hourly", hourly);
+
+        JSONArray monthKeys = new JSONArray();
+        JSONArray monthValues = new JSONArray();
+
+        for(Pair<String, Integer> entry : statistics.getMessagesEachMonth()) {
+            monthKeys.add(entry.getKey());
+            monthValues.add(entry.getValue());
+        }
+
+        JSONObject monthly = new JSONObject();
+        monthly.put("keys", monthKeys);
+        monthly.put("messages", monthValues);
+        summary.put("monthly", monthly);
+
+        summary.put("weekly", getWeeklySeries());
+
+        Message firstOccurrence = statistics.getFirstOccurrence();
+
+        if(firstOccurrence != null) {
+
+            JSONObject firstUse = new JSONObject();
+            firstUse.put("sender", firstOccurrence.getSender());
+            firstUse.put("date", new SimpleDateFormat("yyyy-MM-dd").format(new Date(firstOccurrence.getTimestamp())));
+            summary.put("firstUse", firstUse);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Builds the messages and word uses of every day
+     * @return the series, values are for consecutive days from the start day
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject getDailySeries() {
+
+        String start = getStartDay();
+        int[] messages = toDays(start, statistics.getMessagesEachDay());
+        int[] words = toDays(start, statistics.getWordStatistics());
+
+        JSONObject series = new JSONObject();
+        series.put("start", start);
+        series.put("messages", toArray(messages, 1));
+        series.put("word", toArray(words, 1));
+
+        return series;
+    }
+
+    /**
+     * Builds the messages and word uses of every week
+     * @return the series, values are for consecutive weeks from the start day
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject getWeeklySeries() {
+
+        String start = getStartDay();
+
+        JSONObject series = new JSONObject();
+        series.put("start", start);
+        series.put("messages", toArray(toDays(start, statistics.getMessagesEachDay()), DAYS_PER_WEEK));
+        series.put("word", toArray(toDays(start, statistics.getWordStatistics()), DAYS_PER_WEEK));
+
+        return series;
+    }
+
+    /**
+     * Builds the statistics of a single user
+     * @param name the name of the user
+     * @param user the statistics of the user
+     * @return the user's statistics
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject getUser(String name, UserStatistics user) {
+
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("messages", user.getMessagesSent());
+        json.put("words", user.getWordsSent());
+        json.put("chars", user.getCharsSent());
+        json.put("spamMessages", user.getSpamMessagesSent());
+        json.put("spamWords", user.getSpamWordsSent());
+        json.put("spamChars", user.getSpamCharsSent());
+        json.put("averageWords", user.getAverageWords());
+        json.put("averageChars", user.getAverageChars());
+        json.put("reactionsSent", user.getReactionsSent());
+        json.put("reactionsReceived", user.getReactionsReceived());
+        json.put("namesChanged", user.getNamesChanged());
+        json.put("groupNameChanged", user.getGroupNameChanged());
+        json.put("photoChanged", user.getPhotoChanged());
+        json.put("themeChanged", user.getThemeChanged());
+
+        JSONObject commonWords = new JSONObject();
+        commonWords.put("4", toArray(user.getCommonWordsFour()));
+        commonWords.put("5", toArray(user.getCommonWordsFive()));
+        commonWords.put("6", toArray(user.getCommonWordsSix()));
+        commonWords.put("7", toArray(user.getCommonWordsSeven()));
+        commonWords.put("8", toArray(user.getCommonWordsEight()));
+        commonWords.put("9", toArray(user.getCommonWordsNine()));
+        json.put("commonWords", commonWords);
+
+        return json;
+    }
+
+    /**
+     * Finds the first day of the per day series
+     * @return the day as "yyyy-MM-dd", or the creation day if there are no days
+     */
+    private String getStartDay() {
+
+        List<Pair<String, Integer>> days = statistics.getMessagesEachDay();
+
+        if(days.isEmpty()) {
+            return statistics.getCreationDate() == null ? "1970-01-01" : statistics.getCreationDate().substring(0, 10);
+        }
+
+        return days.get(0).getKey();
+    }
+
+    /**
+     * Places the values of a per day series at their offsets from the start day, days missing from it are zero
+     * @param start the first day as "yyyy-MM-dd"
+     * @param series day and value pairs, sorted by day
+     * @return the value of each day
+     */
+    private int[] toDays(String start, List<Pair<String, Integer>> series) {
+
+        if(series.isEmpty()) {
+            return new int[0];
+        }
+
+        LocalDate startDay = LocalDate.parse(start);
+        int length = (int) ChronoUnit.DAYS.between(startDay, LocalDate.parse(series.get(series.size() - 1).getKey())) + 1;
+        int[] days = new int[Math.max(length, 0)];
+
+        for(Pair<String, Integer> entry : series) {
+
+            long offset = ChronoUnit.DAYS.between(startDay, LocalDate.parse(entry.getKey()));
+
+            if(offset >= 0 && offset < days.length) {
+                days[(int) offset] += entry.getValue();
+            }
+        }
+
+        return days;
+    }
+
+    /**
+     * Sums values into buckets
+     * @param values the values to be summed
+     * @param bucketSize the number of consecutive values in a bucket
+     * @return the sum of each bucket
+     */
+    @SuppressWarnings("unchecked")
+    private JSONArray toArray(int[] values, int bucketSize) {
+
+        JSONArray array = new JSONArray();
+
+        for(int start = 0; start < values.length; start += bucketSize) {
+
+            int sum = 0;
+
+            for(int i = start; i < Math.min(start + bucketSize, values.length); i++) {
+                sum += values[i];
+            }
+
+            array.add(sum);
+        }
+
+        return array;
+    }
+
+    /**
+     * Converts word and count pairs to pairs of json values
+     * @param words the words and their counts
+     * @return array of [word, count] arrays
+     */
+    @SuppressWarnings("unchecked")
+    private JSONArray toArray(List<Pair<String, Integer>> words) {
+
+        JSONArray array = new JSONArray();
+
+        if(words == null) {
+            return array;
+        }
+
+        for(Pair<String, Integer> word : words) {
+
+            JSONArray pair = new JSONArray();
+            pair.add(word.getKey());
+            pair.add(word.getValue());
+            array.add(pair);
+        }
+
+        return array;
+    }
+
+    /**
+     * Reads the viewer page
+     * @return the page with the summary marker still in it
+     * @throws IOException if the page couldn't be read
+     */
+    private String readTemplate() throws IOException {
+
+        InputStream in = HTMLWriter.class.getResourceAsStream(TEMPLATE);
+
+        if(in == null) {
+            throw new FileNotFoundException("viewer page " + TEMPLATE + " is missing from the class path");
+        }
+
+        try(Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+
+            StringBuilder template = new StringBuilder();
+            char[] buffer = new char[8192];
+
+            for(int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+                template.append(buffer, 0, read);
+            }
+
+            return template.toString();
+        }
+    }
+
+    /**
+     * Writes text to a file as UTF-8
+     * @param file the file to be written to
+     * @param text the text to be written
+     * @throws IOException if the file couldn't be written
+     */
+    private void write(File file, String text) throws IOException {
+
+        try(Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)),
+                StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+}
@@ -14,44 +14,67 @@ public class JSONRepair {
      * @param files the JSON files to be repaired
      */
     public static void repairJSON(List<File> files) {
+        repairJSON(files, new Metrics());
+    }
+
+    /**
+     * Repairs the encoding, recording the files repaired and the bytes read as the "repair" stage
+     * @param files the JSON files to be repaired
+     * @param metrics the registry the stage is recorded in
+     */
+    public static void repairJSON(List<File> files, Metrics metrics) {
 
         for(File file : files) {
 
-            String line;
-            StringBuilder contentBuilder = new StringBuilder();
+            try(Metrics.Span span = metrics.start("repair")) {
+                span.setSubject(file.getPath());
+                span.addItems(1);
+                span.addBytesRead(file.length());
+                repairFile(file);
+            }
+        }
+    }
+
+    /**
+     * Repairs the encoding of a single file
+     * @param file the JSON file to be repaired
+     */
+    private static void repairFile(File file) {
 
-            try ( BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+        String line;
+        StringBuilder contentBuilder = new StringBuilder();
 
-                while( (line = in.readLine()) != null ) {
-                    contentBuilder.append(line).append("\n");
-                }
+        try ( BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
 
-            } catch(Exception e) {
-                e.printStackTrace();
+            while( (line = in.readLine()) != null ) {
+                contentBuilder.append(line).append("\n");
             }
 
-            // Change unicode sequences to appropriate symbols
-            String string = UnicodeParser.unescapeString(contentBuilder.toString());
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
 
-            // Decode as utf8 -> encode as latin1 -> decode as utf8
-            try {
+        // Change unicode sequences to appropriate symbols
+        String string = UnicodeParser.unescapeString(contentBuilder.toString());
 
-                final Charset utf8Charset = Charset.forName("UTF-8");
-                final Charset iso88591Charset = Charset.forName("latin1");
+        // Decode as utf8 -> encode as latin1 -> decode as utf8
+        try {
 
-                ByteBuffer inputBuffer = ByteBuffer.wrap(string.getBytes(utf8Charset));
-                CharBuffer data = utf8Charset.decode(inputBuffer);
+            final Charset utf8Charset = Charset.forName("UTF-8");
+            final Charset iso88591Charset = Charset.forName("latin1");
 
-                ByteBuffer isoBuffer = iso88591Charset.encode(data);
-                CharBuffer outputData = utf8Charset.decode(isoBuffer);
+            ByteBuffer inputBuffer = ByteBuffer.wrap(string.getBytes(utf8Charset));
+            CharBuffer data = utf8Charset.decode(inputBuffer);
 
-                try ( BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
-                    out.write(outputData.toString().trim().toCharArray());
-                }
+            ByteBuffer isoBuffer = iso88591Charset.encode(data);
+            CharBuffer outputData = utf8Charset.decode(isoBuffer);
 
-            } catch (Exception e) {
-                e.printStackTrace();
+            try ( BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+                out.write(outputData.toString().trim().toCharArray());
             }
+
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 }
@@ -0,0 +1,40 @@
+import java.util.List;
+
+/**
+ * A message as the analysis reads it, whether it's kept on the heap or read from where it's stored.
+ * Only the content can be changed, so that automatically generated messages can be corrected
+ */
+public interface Message {
+
+    String getSender();
+
+    Long getTimestamp();
+
+    String getType();
+
+    String getContent();
+
+    /**
+     * Replaces the content
+     * @param content the new content
+     */
+    void setContent(String content);
+
+    List<String> getUsers();
+
+    List<String> getPhotos();
+
+    List<MessageFormat.Reaction> getReactions();
+
+    /**
+     * Counts the words of the content the way splitting it on \s+ does
+     * @return the number of words
+     */
+    int countWords();
+
+    /**
+     * Counts the UTF-16 characters of the content
+     * @return the number of characters
+     */
+    int countChars();
+}
@@ -0,0 +1,428 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List of messages stored outside of the heap in direct buffers. Metadata is kept in blocks of columns, one column
+ * per field, and content as UTF-8 bytes in data chunks that the content columns hold the position and length of.
+ * Timestamps are delta encoded in a column of their own, which also finds the messages sent within a time range.
+ * Messages are returned as views that read the buffers when asked, so the heap only holds the views in use.
+ * Direct buffers count towards -XX:MaxDirectMemorySize rather than -Xmx and are freed when they're collected
+ */
+public class MessageArena extends AbstractList<Message> implements AutoCloseable {
+
+    // Number of messages in a block of metadata columns
+    private static final int BLOCK_SIZE = 1 << 14;
+
+    // Bytes of content and of reactions, users and photos in a data chunk, larger items get a chunk of their own
+    private static final int CHUNK_SIZE = 1 << 24;
+
+    // Where each column starts in a block
+    private static final int SENDERS = 0;
+    private static final int TYPES = SENDERS + 4 * BLOCK_SIZE;
+    private static final int CONTENT_POSITIONS = TYPES + 4 * BLOCK_SIZE;
+    private static final int CONTENT_LENGTHS = CONTENT_POSITIONS + 8 * BLOCK_SIZE;
+    private static final int EXTRA_POSITIONS = CONTENT_LENGTHS + 4 * BLOCK_SIZE;
+    private static final int BLOCK_BYTES = EXTRA_POSITIONS + 8 * BLOCK_SIZE;
+
+    // Position of the reactions, users and photos of a message that has none
+    private static final long NO_EXTRAS = -1;
+
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+
+    private TimestampColumn timestamps = new TimestampColumn();
+
+    // Data chunks, the last one is appended to. A position is the index of its chunk followed by its offset in it
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    // Senders, types, reactions and users repeat across messages, so each is stored as its index in here
+    private final StringDictionary dictionary = new StringDictionary();
+
+    private int size;
+
+    /**
+     * Adds a message to the end of the arena, copying it out of the heap
+     * @param message the message to be added
+     * @return true
+     */
+    @Override
+    public boolean add(Message message) {
+
+        int slot = size % BLOCK_SIZE;
+
+        if(slot == 0) {
+            blocks.add(ByteBuffer.allocateDirect(BLOCK_BYTES));
+        }
+
+        ByteBuffer block = blocks.get(blocks.size() - 1);
+
+        timestamps.add(message.getTimestamp());
+        block.putInt(SENDERS + 4 * slot, dictionary.indexOf(message.getSender()));
+        block.putInt(TYPES + 4 * slot, dictionary.indexOf(message.getType()));
+
+        byte[] content = contentBytes(message);
+        block.putLong(CONTENT_POSITIONS + 8 * slot, content == null ? 0 : append(content));
+        block.putInt(CONTENT_LENGTHS + 4 * slot, content == null ? -1 : content.length);
+
+        byte[] extras = extraBytes(message);
+        block.putLong(EXTRA_POSITIONS + 8 * slot, extras == null ? NO_EXTRAS : append(extras));
+
+        size++;
+        modCount++;
+
+        return true;
+    }
+
+    /**
+     * Returns a view of a message
+     * @param index the position of the message
+     * @return the view, reading the message from the arena
+     */
+    @Override
+    public View get(int index) {
+
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        return new View(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the messages sent within a time range, found through the timestamp column's skip index.
+     * The messages have to have been added in order of time, in either direction
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, exclusive
+     * @return view of the messages in the range
+     */
+    public List<Message> between(long from, long to) {
+
+        int[] range = timestamps.range(from, to);
+        return subList(range[0], range[1]);
+    }
+
+    /**
+     * Removes every message. The buffers are freed once they're collected
+     */
+    @Override
+    public void clear() {
+
+        blocks.clear();
+        chunks.clear();
+        timestamps = new TimestampColumn();
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Lets go of the buffers, so they're freed once they're collected
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Returns the content of a message as UTF-8 bytes, copied straight from the arena if it's a view of one
+     * @param message the message
+     * @return the bytes, null if the message has no content
+     */
+    private static byte[] contentBytes(Message message) {
+
+        if(message instanceof View && ((View) message).content == null) {
+            return ((View) message).readContentBytes();
+        }
+
+        return message.getContent() == null ? null : message.getContent().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the reactions, users and photos of a message
+     * @param message the message
+     * @return the encoded bytes, null if the message has none of them
+     */
+    private byte[] extraBytes(Message message) {
+
+        if(message.getReactions().isEmpty() && message.getUsers().isEmpty() && message.getPhotos().isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+
+            out.writeInt(message.getReactions().size());
+
+            for(MessageFormat.Reaction reaction : message.getReactions()) {
+                out.writeInt(dictionary.indexOf(reaction.getReaction()));
+                out.writeInt(dictionary.indexOf(reaction.getSender()));
+            }
+
+            out.writeInt(message.getUsers().size());
+
+            for(String user : message.getUsers()) {
+                out.writeInt(dictionary.indexOf(user));
+            }
+
+            out.writeInt(message.getPhotos().size());
+
+            for(String photo : message.getPhotos()) {
+
+                byte[] photoBytes = photo.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(photoBytes.length);
+                out.write(photoBytes);
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends bytes to the data chunks, starting a new chunk if they don't fit in the last one
+     * @param bytes the bytes to be appended
+     * @return the position of the bytes
+     */
+    private long append(byte[] bytes) {
+
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+
+        if(chunk == null || chunk.remaining() < bytes.length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, bytes.length));
+            chunks.add(chunk);
+        }
+
+        long position = (long) (chunks.size() - 1) << 32 | chunk.position();
+        chunk.put(bytes);
+
+        return position;
+    }
+
+    /**
+     * Returns a buffer of the data chunk at a position, positioned at it
+     * @param position the position in the data chunks
+     * @return the buffer, independent of the chunk's own position
+     */
+    private ByteBuffer data(long position) {
+
+        ByteBuffer data = chunks.get((int) (position >>> 32)).duplicate();
+        data.position((int) position);
+
+        return data;
+    }
+
+    /**
+     * A message in the arena. Reads its fields from the arena when they're asked for, a changed content is
+     * kept by the view rather than the arena
+     */
+    public class View implements Message {
+
+        private final int index;
+        private final ByteBuffer block;
+        private final int slot;
+
+        // Content decoded or set, null until either happens
+        private String content;
+
+        private View(int index) {
+            this.index = index;
+            block = blocks.get(index / BLOCK_SIZE);
+            slot = index % BLOCK_SIZE;
+        }
+
+        @Override
+        public String getSender() {
+            return dictionary.get(block.getInt(SENDERS + 4 * slot));
+        }
+
+        @Override
+        public Long getTimestamp() {
+            return timestamps.get(index);
+        }
+
+        @Override
+        public String getType() {
+            return dictionary.get(block.getInt(TYPES + 4 * slot));
+        }
+
+        @Override
+        public String getContent() {
+
+            if(content == null) {
+
+                byte[] bytes = readContentBytes();
+                content = bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            return content;
+        }
+
+        @Override
+        public void setContent(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public List<MessageFormat.Reaction> getReactions() {
+
+            ByteBuffer extras = extras();
+
+            if(extras == null) {
+                return Collections.emptyList();
+            }
+
+            List<MessageFormat.Reaction> reactions = new ArrayList<>();
+            int count = extras.getInt();
+
+            for(int reaction = 0; reaction < count; reaction++) {
+                reactions.add(new MessageFormat.Reaction(dictionary.get(extras.getInt()),
+                        dictionary.get(extras.getInt())));
+            }
+
+            return reactions;
+        }
+
+        @Override
+        public List<String> getUsers() {
+
+            ByteBuffer extras = extras();
+
+            if(extras == null) {
+                return Collections.emptyList();
+            }
+
+            skipReactions(extras);
+
+            List<String> users = new ArrayList<>();
+            int count = extras.getInt();
+
+            for(int user = 0; user < count; user++) {
+                users.add(dictionary.get(extras.getInt()));
+            }
+
+            return users;
+        }
+
+        @Override
+        public List<String> getPhotos() {
+
+            ByteBuffer extras = extras();
+
+            if(extras == null) {
+                return Collections.emptyList();
+            }
+
+            skipReactions(extras);
+
+            int users = extras.getInt();
+            extras.position(extras.position() + 4 * users);
+
+            List<String> photos = new ArrayList<>();
+            int count = extras.getInt();
+
+            for(int photo = 0; photo < count; photo++) {
+
+                byte[] bytes = new byte[extras.getInt()];
+                extras.get(bytes);
+                photos.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            return photos;
+        }
+
+        /**
+         * Counts the words of the content the way splitting it on \\s+ does, reading the arena directly
+         * unless the content has been decoded
+         * @return the number of words
+         */
+        @Override
+        public int countWords() {
+
+            if(content != null) {
+                return content.split("\\s+").length;
+            }
+
+            int length = block.getInt(CONTENT_LENGTHS + 4 * slot);
+
+            if(length < 0) {
+                return 1;
+            }
+
+            ByteBuffer data = data(block.getLong(CONTENT_POSITIONS + 8 * slot));
+            return MessageFormat.countWords(data, data.position(), length);
+        }
+
+        /**
+         * Counts the UTF-16 characters of the content, reading the arena directly unless it has been decoded
+         * @return the number of characters
+         */
+        @Override
+        public int countChars() {
+
+            if(content != null) {
+                return content.length();
+            }
+
+            int length = block.getInt(CONTENT_LENGTHS + 4 * slot);
+
+            if(length < 0) {
+                return 0;
+            }
+
+            ByteBuffer data = data(block.getLong(CONTENT_POSITIONS + 8 * slot));
+            return MessageFormat.countChars(data, data.position(), length);
+        }
+
+        /**
+         * Copies the content as it is stored in the arena
+         * @return the UTF-8 bytes, null if the message has no content
+         */
+        private byte[] readContentBytes() {
+
+            int length = block.getInt(CONTENT_LENGTHS + 4 * slot);
+
+            if(length < 0) {
+                return null;
+            }
+
+            byte[] bytes = new byte[length];
+            data(block.getLong(CONTENT_POSITIONS + 8 * slot)).get(bytes);
+
+            return bytes;
+        }
+
+        /**
+         * Returns a buffer positioned at the reactions, users and photos of the message
+         * @return the buffer, null if the message has none of them
+         */
+        private ByteBuffer extras() {
+
+            long position = block.getLong(EXTRA_POSITIONS + 8 * slot);
+            return position == NO_EXTRAS ? null : data(position);
+        }
+
+        /**
+         * Moves a buffer of extras past the reactions
+         * @param extras the buffer, positioned at the number of reactions
+         */
+        private void skipReactions(ByteBuffer extras) {
+
+            int reactions = extras.getInt();
+            extras.position(extras.position() + 8 * reactions);
+        }
+    }
+}
@@ -1,219 +1,387 @@
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-
-import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Filters out spam and automatically generated messages
  */
 public class MessageFilter {
 
-    private List<MessageFormat> spamMessages = new ArrayList<>();
+    private List<Message> spamMessages = new ArrayList<>();
 
     // Automatically generated messages
-    private List<MessageFormat> infoMessages = new ArrayList<>();
+    private List<Message> infoMessages = new ArrayList<>();
+
+    // Keywords and name aliases that identify automatically generated messages
+    private final RuleSet rules;
+
+    // Number of messages following and previous to the current message
+    private static final int SAMPLE_SIZE = 5;
+
+    // Number of messages below which a chunk is evaluated on the current thread
+    private static final int CHUNK_SIZE = 2048;
+
+    // Number of distinct message contents whose verdicts are remembered
+    private static final int VERDICT_CACHE_SIZE = 4096;
+
+    // Pool that spam detection chunks are evaluated on
+    private final ForkJoinPool pool;
+
+    // Verdicts of the checks that only depend on the content of a message
+    private final VerdictCache verdictCache = new VerdictCache(VERDICT_CACHE_SIZE);
+
+    // Checks that classify a message as spam
+    private final FilterChain spamChain = new FilterChain();
+
+    // Time spent and messages removed by each filtering stage
+    private final Metrics metrics;
+    private final StageStatistics infoStage;
+    private final StageStatistics spamStage;
+    private final StageStatistics othersStage;
+
+    /**
+     * Creates a filter using the default rules that evaluates spam on the common fork-join pool
+     */
+    public MessageFilter() {
+        this(RuleSet.getDefault(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a filter that evaluates spam on the given pool
+     * @param rules the rules identifying automatically generated messages
+     * @param pool the pool spam detection chunks are evaluated on
+     */
+    public MessageFilter(RuleSet rules, ForkJoinPool pool) {
+        this(rules, pool, new Metrics());
+    }
+
+    /**
+     * Creates a filter that evaluates spam on the given pool and records its stages in a registry
+     * @param rules the rules identifying automatically generated messages
+     * @param pool the pool spam detection chunks are evaluated on
+     * @param metrics the registry the filtering stages are recorded in
+     */
+    public MessageFilter(RuleSet rules, ForkJoinPool pool, Metrics metrics) {
 
-    // The phrases that appear in automatically generated messages
-    private List<String> filterKeywords = new ArrayList<>();
+        this.rules = rules;
+        this.pool = pool;
+        this.metrics = metrics;
 
-    // Other names for a user
-    private Map<String, List<String>> nameAliases = new HashMap<>();
+        infoStage = metrics.stage("filter.info");
+        spamStage = metrics.stage("filter.spam");
+        othersStage = metrics.stage("filter.others");
+
+        spamChain.add("empty", (message, sample) -> message.isEmpty());
+        spamChain.add("content", (message, sample) -> verdictCache.test(message, this::isContentSpam));
+        spamChain.add("repeat", this::doesMessageRepeat);
+    }
+
+    /**
+     * Adds a check that classifies messages as spam
+     * @param name the name the check's statistics are reported under
+     * @param check the check to be added
+     */
+    public void addSpamCheck(String name, SpamCheck check) {
+        spamChain.add(name, check);
+    }
 
     /**
      * Filters out spam and automatically generated messages
      * @param messages the messages to be filtered out
      */
-    public void filter(List<MessageFormat> messages) {
+    public void filter(List<Message> messages) {
+
+        try(Metrics.Span span = metrics.start(infoStage.getName())) {
+
+            int size = messages.size();
+            filterInfoMsgs(messages);
+            span.addItems(size);
+            span.addRejected(size - messages.size());
+        }
 
-        filterInfoMsgs(messages);
+        // Each chunk is recorded by a span on the pool thread that evaluates it, so the stage's time, cpu time and
+        // allocations are those of every thread it ran on. Only the rejected messages are left to be recorded here
+        int unfiltered = messages.size();
         filterSpam(messages);
-        filterOthers(messages);
+        spamStage.record(0, 0, unfiltered - messages.size());
+
+        try(Metrics.Span span = metrics.start(othersStage.getName())) {
+
+            int size = messages.size();
+            filterOthers(messages);
+            span.addItems(size);
+            span.addRejected(size - messages.size());
+        }
     }
 
     /**
-     * Filters out automatically generated messages
+     * Filters out spam and automatically generated messages as they are read, keeping only a chunk of messages
+     * and the samples around them in memory
      * @param messages the messages to be filtered out
+     * @param sink the receiver of kept, spam and automatically generated messages
      */
-    private void filterInfoMsgs(List<MessageFormat> messages) {
+    public void filter(Iterator<Message> messages, MessageSink sink) {
 
-        addKeywords();
-        addAliases();
+        // Messages that passed the info filter, together with their contents so each is decoded once. Besides the
+        // chunk being read, the window holds the messages before and after it that are still needed as sample
+        Message[] window = new Message[CHUNK_SIZE + 2 * SAMPLE_SIZE];
+        String[] contents = new String[window.length];
+        int size = 0;
 
-        correctInfoMessages(messages);
+        // Position in the filtered stream of the window's first message
+        long offset = 0;
 
-        ListIterator<MessageFormat> messagesIt = messages.listIterator();
+        // Index in the window of the next message to be evaluated for spam
+        int next = 0;
 
-        while(messagesIt.hasNext()) {
+        while(messages.hasNext()) {
 
-            MessageFormat message = messagesIt.next();
+            // Passed on to the sink once the span is closed, so the stage isn't charged for the sink's work
+            List<Message> info = new ArrayList<>();
 
-            nextMessage:
-            for(String keyword : filterKeywords) {
+            try(Metrics.Span span = metrics.start(infoStage.getName())) {
 
-                for(String name : nameAliases.keySet()) {
+                int read = 0;
 
-                    if(message.getContent().startsWith(name + " " + keyword)) {
+                for(; read < CHUNK_SIZE && messages.hasNext(); read++) {
 
-                        infoMessages.add(message);
-                        messagesIt.remove();
-                        break nextMessage;
+                    Message message = messages.next();
+                    String content = correctInfoMessage(message);
+
+                    if(rules.isInfoMessage(content)) {
+                        info.add(message);
+                    } else {
+                        window[size] = message;
+                        contents[size++] = content;
                     }
                 }
+
+                span.addItems(read);
+                span.addRejected(info.size());
             }
+
+            info.forEach(sink::info);
+
+            // Evaluate the messages whose following messages in their sample are all known
+            int evaluated = Math.max(next, size - SAMPLE_SIZE);
+            evaluateStreamed(window, contents, offset, next, evaluated, true, sink);
+
+            // Keep the sample of the messages left to be evaluated
+            int shift = Math.max(0, size - 2 * SAMPLE_SIZE);
+            System.arraycopy(window, shift, window, 0, size - shift);
+            System.arraycopy(contents, shift, contents, 0, size - shift);
+
+            size -= shift;
+            offset += shift;
+            next = evaluated - shift;
         }
+
+        // The last messages have no following messages to compare to
+        evaluateStreamed(window, contents, offset, next, size, false, sink);
     }
 
     /**
-     * Changes the name aliases to actual name in automatically generated messages
-     * @param messages all messages
+     * Evaluates a batch of streamed messages for spam and passes them on to the sink
+     * @param window the messages being evaluated and the ones around them
+     * @param contents the contents of the messages in the window
+     * @param offset the position in the filtered stream of the window's first message
+     * @param from the index in the window of the first message to be evaluated, inclusive
+     * @param to the index in the window of the last message to be evaluated, exclusive
+     * @param hasFollowing whether the evaluated messages are followed by the rest of their sample
+     * @param sink the receiver of the messages once they are evaluated
      */
-    private void correctInfoMessages(List<MessageFormat> messages) {
+    private void evaluateStreamed(Message[] window, String[] contents, long offset, int from, int to,
+                                  boolean hasFollowing, MessageSink sink) {
+
+        if(from >= to) {
+            return;
+        }
 
-        for(MessageFormat message : messages) {
+        List<Message> spam = new ArrayList<>();
+        List<Message> notSpam = new ArrayList<>(to - from);
 
-            nextMessage:
-            for(String keyword : filterKeywords) {
+        try(Metrics.Span span = metrics.start(spamStage.getName())) {
 
-                for(String user : nameAliases.keySet()) {
+            for(int index = from; index < to; index++) {
 
-                    for (String name : nameAliases.get(user)) {
+                String[] sample = new String[hasFollowing && offset + index > SAMPLE_SIZE ? 2 * SAMPLE_SIZE : 0];
+                int pos = 0;
 
-                        if (message.getContent().startsWith(name + " " + keyword) &&
-                            !message.getContent().startsWith(user + " " + keyword)) {
+                for(int samplePos = index - SAMPLE_SIZE; pos < sample.length; samplePos++) {
 
-                            message.setContent(user + " " + message.getContent().substring(name.length() + 1));
-                            break nextMessage;
-                        }
+                    if(samplePos != index) {
+                        sample[pos++] = contents[samplePos];
                     }
                 }
+
+                if(spamChain.isSpam(contents[index], sample)) {
+                    spam.add(window[index]);
+                } else {
+                    notSpam.add(window[index]);
+                }
+            }
+
+            spamChain.endBatch(to - from);
+            span.addItems(to - from);
+            span.addRejected(spam.size());
+        }
+
+        List<Message> kept = new ArrayList<>(notSpam.size());
+
+        try(Metrics.Span span = metrics.start(othersStage.getName())) {
+
+            for(Message message : notSpam) {
+
+                if(isTrackedSender(message)) {
+                    kept.add(message);
+                }
             }
+
+            span.addItems(notSpam.size());
+            span.addRejected(notSpam.size() - kept.size());
         }
+
+        spam.forEach(sink::spam);
+        kept.forEach(sink::kept);
     }
 
     /**
-     * Loads filter keywords from file
+     * Filters out automatically generated messages
+     * @param messages the messages to be filtered out
      */
-    private void addKeywords() {
+    private void filterInfoMsgs(List<Message> messages) {
+
+        ListIterator<Message> messagesIt = messages.listIterator();
 
-        String line;
+        while(messagesIt.hasNext()) {
 
-        try(BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(
-                "C:\\keywords.txt")))) {
+            Message message = messagesIt.next();
 
-            while((line = input.readLine()) != null) {
-                filterKeywords.add(line);
+            if(isInfoMessage(message)) {
+                infoMessages.add(message);
+                messagesIt.remove();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Loads name aliases from file
+     * Tests if a message is automatically generated, changing name aliases in it to the actual name
+     * @param message the message to be tested
+     * @return true if the message is automatically generated, false otherwise
      */
-    private void addAliases() {
+    private boolean isInfoMessage(Message message) {
 
-        JSONParser parser = new JSONParser();
-
-        try {
+        return rules.isInfoMessage(correctInfoMessage(message));
+    }
 
-            JSONObject data = (JSONObject) parser.parse(new FileReader( new File(
-                    "C:\\nameAliases.json")));
+    /**
+     * Changes the name aliases to actual name in an automatically generated message
+     * @param message the message to be corrected
+     * @return the content of the message once corrected, decoded only once
+     */
+    private String correctInfoMessage(Message message) {
 
-            JSONArray users = (JSONArray) data.get("users");
+        String content = message.getContent();
 
-            for(Object userObj : users) {
+        for(RuleSet.Match alias : rules.findAliases(content)) {
 
-                JSONObject user = (JSONObject) userObj;
-                nameAliases.put((String) user.get("name"), new ArrayList<>());
-                JSONArray aliases = (JSONArray) user.get("aliases");
+            if(!content.startsWith(alias.getUser() + " " + alias.getKeyword())) {
 
-                for(Object aliasObj : aliases) {
+                String corrected = alias.getUser() + " " + content.substring(alias.getName().length() + 1);
+                message.setContent(corrected);
 
-                    JSONObject alias = (JSONObject) aliasObj;
-                    nameAliases.get((String) user.get("name")).add((String) alias.get("alias"));
-                }
+                return corrected;
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+
+        return content;
     }
 
     /**
      * Filters out spam messages
      * @param messages the messages to be filtered out
      */
-    private void filterSpam(List<MessageFormat> messages) {
-
-        // Number of messages following and previous to the current message
-        final int SAMPLE_SIZE = 5;
-        List<String> sample;
-
-        // Test small sample of messages for similarities
-        for(int index = 0; index < messages.size(); index++) {
+    private void filterSpam(List<Message> messages) {
 
-            sample = new ArrayList<>();
+        String[] contents = new String[messages.size()];
 
-            if(index > SAMPLE_SIZE && index + SAMPLE_SIZE < messages.size()) {
+        for(int index = 0; index < contents.length; index++) {
+            contents[index] = messages.get(index).getContent();
+        }
 
-                for(int samplePos = index - SAMPLE_SIZE; samplePos <= index + SAMPLE_SIZE; samplePos++) {
+        // Each verdict only depends on its neighbours, so chunks can be evaluated independently
+        boolean[] verdicts = new boolean[contents.length];
+        pool.invoke(new SpamTask(contents, verdicts, 0, contents.length));
 
-                    if(samplePos != index) {
-                        sample.add(messages.get(samplePos).getContent());
-                    }
-                }
-            }
+        List<Message> keptMessages = new ArrayList<>(messages.size());
 
-            String[] sampleArray = new String[sample.size()];
-            sampleArray = sample.toArray(sampleArray);
+        for(int index = 0; index < verdicts.length; index++) {
 
-            if(isSpam(messages.get(index).getContent(), sampleArray)) {
+            if(verdicts[index]) {
                 spamMessages.add(messages.get(index));
+            } else {
+                keptMessages.add(messages.get(index));
             }
         }
 
-        messages.removeIf(message -> spamMessages.contains(message));
+        messages.clear();
+        messages.addAll(keptMessages);
     }
 
     /**
-     * Removes messages that are sent by users who's statistics are not being tracked
-     * @param messages all the messages sent
+     * Tests if the message at the given position is considered as spam
+     * @param contents the contents of all messages
+     * @param index the position of the message to be tested
+     * @return true if message is spam, false otherwise
      */
-    private void filterOthers(List<MessageFormat> messages) {
-
-        ListIterator<MessageFormat> messagesIterator = messages.listIterator();
-        boolean toRemove;
+    private boolean isSpamAt(String[] contents, int index) {
 
-        while(messagesIterator.hasNext()) {
+        List<String> sample = new ArrayList<>();
 
-            MessageFormat message = messagesIterator.next();
-            toRemove = true;
+        // Test small sample of messages for similarities
+        if(index > SAMPLE_SIZE && index + SAMPLE_SIZE < contents.length) {
 
-            for(String user : nameAliases.keySet()) {
+            for(int samplePos = index - SAMPLE_SIZE; samplePos <= index + SAMPLE_SIZE; samplePos++) {
 
-                if(message.getSender().equals(user)) {
-                    toRemove = false;
+                if(samplePos != index) {
+                    sample.add(contents[samplePos]);
                 }
             }
-
-            if(toRemove) {
-                messagesIterator.remove();
-            }
         }
+
+        String[] sampleArray = new String[sample.size()];
+        sampleArray = sample.toArray(sampleArray);
+
+        return spamChain.isSpam(contents[index], sampleArray);
+    }
+
+    /**
+     * Removes messages that are sent by users who's statistics are not being tracked
+     * @param messages all the messages sent
+     */
+    private void filterOthers(List<Message> messages) {
+
+        messages.removeIf(message -> !isTrackedSender(message));
     }
 
     /**
-     * Tests if a message is considered as spam
+     * Tests if a message is sent by a user who's statistics are being tracked
+     * @param message the message to be tested
+     * @return true if the sender is tracked, false otherwise
+     */
+    private boolean isTrackedSender(Message message) {
+
+        return rules.getNameAliases().containsKey(message.getSender());
+    }
+
+    /**
+     * Tests if a message is considered as spam regardless of the messages around it
      * @param message the message to be tested
-     * @param messages past and future messages
      * @return true if message is spam, false otherwise
      */
-    private boolean isSpam(String message, String[] messages) {
+    private boolean isContentSpam(String message) {
 
-        return isOneLetterWord(message) || doWordsRepeat(message) || doesMessageRepeat(message, messages) || message.isEmpty();
+        return isOneLetterWord(message) || doWordsRepeat(message);
     }
 
     /**
@@ -223,6 +391,11 @@ public class MessageFilter {
      */
     private boolean isOneLetterWord(String message) {
 
+        // Only long messages can be considered as spam
+        if(message.length() <= 80) {
+            return false;
+        }
+
         Map<Character, Integer> charMap = new HashMap<>();
 
         if(message.split("\\s+").length == 1) {
@@ -238,7 +411,7 @@ public class MessageFilter {
 
             for(Character ch : charMap.keySet()) {
 
-                if(message.length() > 80 && (double) charMap.get(ch) / message.length() * 100 > 80) {
+                if((double) charMap.get(ch) / message.length() * 100 > 80) {
                     return true;
                 }
             }
@@ -318,18 +491,72 @@ public class MessageFilter {
         return wordMap;
     }
 
+    /**
+     * Evaluates a chunk of messages for spam. A chunk owns the verdicts for its own range but reads
+     * a halo of SAMPLE_SIZE messages on each side, so every verdict matches the sequential result
+     */
+    private class SpamTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] contents;
+        private final boolean[] verdicts;
+        private final int from;
+        private final int to;
+
+        private SpamTask(String[] contents, boolean[] verdicts, int from, int to) {
+            this.contents = contents;
+            this.verdicts = verdicts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(to - from <= CHUNK_SIZE) {
+
+                try(Metrics.Span span = metrics.start(spamStage.getName())) {
+
+                    for(int index = from; index < to; index++) {
+                        verdicts[index] = isSpamAt(contents, index);
+                    }
+
+                    spamChain.endBatch(to - from);
+                    span.addItems(to - from);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new SpamTask(contents, verdicts, from, middle), new SpamTask(contents, verdicts, middle, to));
+        }
+    }
+
     /*
      * Getters
      */
-    public List<MessageFormat> getInfoMessages() {
+    public List<Message> getInfoMessages() {
         return infoMessages;
     }
 
     public Map<String, List<String>> getNameAliases() {
-        return nameAliases;
+        return rules.getNameAliases();
     }
 
-    public List<MessageFormat> getSpamMessages() {
+    public List<Message> getSpamMessages() {
         return spamMessages;
     }
+
+    public VerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+    public List<StageStatistics> getStageStatistics() {
+        return Arrays.asList(infoStage, spamStage, othersStage);
+    }
+
+    public List<StageStatistics> getSpamCheckStatistics() {
+        return spamChain.getStatistics();
+    }
 }
@@ -1,31 +1,69 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * Represents a message read from JSON message file
+ * Represents a message read from JSON message file. Senders, types, reactions and users are kept as their
+ * index in a dictionary shared by every message, and content as UTF-8 bytes
  */
-public class MessageFormat {
+public class MessageFormat implements Message {
 
-    private String sender;
-    private String content;
-    private String type;
+    // Names and emoji repeat across messages, so each is kept once for the whole process
+    private static final StringDictionary NAMES = new StringDictionary();
+
+    private static final int[] NO_IDS = new int[0];
+    private static final String[] NO_PHOTOS = new String[0];
+
+    private int sender = -1;
+    private int type = -1;
+    private byte[] content;
 
     private long timestamp;
-    private long creationTimestamp;
 
-    private List<Reaction> reactions = new ArrayList<>();
-    private List<String> users = new ArrayList<>();
-    private List<String> photos = new ArrayList<>();
+    // Reaction and its sender for each reaction, one after another
+    private int[] reactions = NO_IDS;
+    private int[] users = NO_IDS;
+    private String[] photos = NO_PHOTOS;
+
+    public MessageFormat() {
+    }
+
+    /**
+     * Copies a message
+     * @param message the message to be copied
+     */
+    public MessageFormat(Message message) {
+
+        setSender(message.getSender());
+        setType(message.getType());
+        setContent(message.getContent());
+        setTimestamp(message.getTimestamp());
+
+        for(Reaction reaction : message.getReactions()) {
+            addReaction(reaction.getReaction(), reaction.getSender());
+        }
+
+        for(String user : message.getUsers()) {
+            addUser(user);
+        }
+
+        for(String photo : message.getPhotos()) {
+            addPhoto(photo);
+        }
+    }
 
     /*
      * Getters and Setters
      */
     public String getSender() {
-        return sender;
+        return NAMES.get(sender);
     }
 
     public void setSender(String sender) {
-        this.sender = sender;
+        this.sender = NAMES.indexOf(sender);
     }
 
     public Long getTimestamp() {
@@ -37,45 +75,178 @@ public class MessageFormat {
     }
 
     public String getContent() {
-        return content;
+        return content == null ? null : new String(content, StandardCharsets.UTF_8);
     }
 
     public void setContent(String content) {
-        this.content = content;
+        this.content = content == null ? null : content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getType() {
+        return NAMES.get(type);
     }
 
     public void setType(String type) {
-        this.type = type;
+        this.type = NAMES.indexOf(type);
+    }
+
+    public List<String> getUsers() {
+
+        if(users.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> userNames = new ArrayList<>(users.length);
+
+        for(int user : users) {
+            userNames.add(NAMES.get(user));
+        }
+
+        return userNames;
     }
 
     public void addUser(String user) {
-        users.add(user);
+
+        users = Arrays.copyOf(users, users.length + 1);
+        users[users.length - 1] = NAMES.indexOf(user);
+    }
+
+    public List<String> getPhotos() {
+        return Collections.unmodifiableList(Arrays.asList(photos));
     }
 
     public void addPhoto(String photo) {
-        photos.add(photo);
+
+        photos = Arrays.copyOf(photos, photos.length + 1);
+        photos[photos.length - 1] = photo;
     }
 
     public void addReaction(String reaction, String sender) {
-        reactions.add(new Reaction(reaction, sender));
+
+        reactions = Arrays.copyOf(reactions, reactions.length + 2);
+        reactions[reactions.length - 2] = NAMES.indexOf(reaction);
+        reactions[reactions.length - 1] = NAMES.indexOf(sender);
     }
 
     public List<Reaction> getReactions() {
-        return reactions;
+
+        if(reactions.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Reaction> reactionList = new ArrayList<>(reactions.length / 2);
+
+        for(int index = 0; index < reactions.length; index += 2) {
+            reactionList.add(new Reaction(reactions[index], reactions[index + 1]));
+        }
+
+        return reactionList;
+    }
+
+    /**
+     * Counts the words of the content the way splitting it on \s+ does, without decoding it
+     * @return the number of words
+     */
+    public int countWords() {
+        return content == null ? 1 : countWords(ByteBuffer.wrap(content), 0, content.length);
+    }
+
+    /**
+     * Counts the UTF-16 characters of the content without decoding it
+     * @return the number of characters
+     */
+    public int countChars() {
+        return content == null ? 0 : countChars(ByteBuffer.wrap(content), 0, content.length);
+    }
+
+    /**
+     * Counts the words of UTF-8 text the way splitting it on \s+ does
+     * @param bytes the buffer holding the text
+     * @param start the position of the text in the buffer
+     * @param length the number of bytes of the text
+     * @return the number of words
+     */
+    static int countWords(ByteBuffer bytes, int start, int length) {
+
+        // Nothing to split, so the text itself is the only word
+        if(length == 0) {
+            return 1;
+        }
+
+        int words = 0;
+        boolean inWord = false;
+
+        for(int index = start; index < start + length; index++) {
+
+            if(isWhitespace(bytes.get(index))) {
+                inWord = false;
+            }
+            else if(!inWord) {
+                words++;
+                inWord = true;
+            }
+        }
+
+        // Leading whitespace leaves an empty first word, unless there are no words at all
+        return words > 0 && isWhitespace(bytes.get(start)) ? words + 1 : words;
     }
 
-    public class Reaction {
+    /**
+     * Counts the UTF-16 characters of UTF-8 text
+     * @param bytes the buffer holding the text
+     * @param start the position of the text in the buffer
+     * @param length the number of bytes of the text
+     * @return the number of characters
+     */
+    static int countChars(ByteBuffer bytes, int start, int length) {
+
+        int chars = 0;
+
+        for(int index = start; index < start + length; index++) {
 
-        String reaction;
-        String sender;
+            byte b = bytes.get(index);
+
+            // Every byte but continuation bytes starts a character, four byte characters take two
+            if((b & 0xC0) != 0x80) {
+                chars += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+
+        return chars;
+    }
+
+    /**
+     * Tests if a byte of UTF-8 is a whitespace character matched by \s
+     * @param b the byte
+     * @return true if the byte is whitespace
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * A reaction to a message, kept as the indices of the emoji and its sender
+     */
+    public static class Reaction {
+
+        private final int reaction;
+        private final int sender;
 
         public Reaction(String reaction, String sender) {
+            this(NAMES.indexOf(reaction), NAMES.indexOf(sender));
+        }
+
+        private Reaction(int reaction, int sender) {
             this.reaction = reaction;
             this.sender = sender;
         }
 
+        public String getReaction() {
+            return NAMES.get(reaction);
+        }
+
         public String getSender() {
-            return sender;
+            return NAMES.get(sender);
         }
     }
 }
@@ -0,0 +1,23 @@
+/**
+ * Receives messages as they are classified by a streaming message filter
+ */
+public interface MessageSink {
+
+    /**
+     * Receives a message that passed all of the filters
+     * @param message the kept message
+     */
+    void kept(Message message);
+
+    /**
+     * Receives a message classified as spam
+     * @param message the spam message
+     */
+    void spam(Message message);
+
+    /**
+     * Receives an automatically generated message
+     * @param message the automatically generated message
+     */
+    void info(Message message);
+}
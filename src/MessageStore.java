@@ -0,0 +1,434 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * List of messages that keeps them in memory until their estimated size passes a budget, then spills them
+ * to a scratch file in batches. Each batch is written column by column and read back into a buffer of its own,
+ * one batch at a time, so iterating over the list needs no more heap than a batch.
+ * Spilled messages are decoded again on every pass, so changes made to them are not kept
+ */
+public class MessageStore extends AbstractList<Message> implements AutoCloseable {
+
+    // Estimated heap taken by a message, a string and a reaction besides the characters they hold
+    private static final int MESSAGE_BYTES = 160;
+    private static final int STRING_BYTES = 40;
+    private static final int REACTION_BYTES = 48;
+
+    private static final Message[] NO_MESSAGES = new Message[0];
+
+    // Estimated bytes of messages kept in memory before they're spilled, negative for no limit
+    private final long memoryBudget;
+
+    // Where the scratch file is created, null for the system's temporary directory
+    private final File scratchDirectory;
+
+    // Messages that haven't been spilled, they follow the spilled ones
+    private final List<Message> tail = new ArrayList<>();
+    private long tailBytes;
+
+    // Spilled batches in the order they were added
+    private final List<Segment> segments = new ArrayList<>();
+    private int spilledCount;
+
+    // Senders, types, reactions and users repeat across messages, so each is written as its index in here
+    private final StringDictionary dictionary = new StringDictionary();
+
+    private File file;
+    private FileChannel channel;
+
+    /**
+     * Creates a store
+     * @param memoryBudget the estimated bytes of messages kept in memory, negative to keep every message in memory
+     * @param scratchDirectory where the scratch file is created, null for the system's temporary directory
+     */
+    public MessageStore(long memoryBudget, File scratchDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /**
+     * Adds a message to the end of the store, spilling the messages in memory if they're past the budget
+     * @param message the message to be added
+     * @return true
+     */
+    @Override
+    public boolean add(Message message) {
+
+        tail.add(message);
+        tailBytes += estimateBytes(message);
+        modCount++;
+
+        if(memoryBudget >= 0 && tailBytes > memoryBudget) {
+
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a message. Spilled messages are found by decoding their whole batch, so the store is meant
+     * to be iterated over rather than indexed
+     * @param index the position of the message
+     * @return the message
+     */
+    @Override
+    public Message get(int index) {
+
+        if(index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        if(index >= spilledCount) {
+            return tail.get(index - spilledCount);
+        }
+
+        for(Segment segment : segments) {
+
+            if(index < segment.count) {
+                return read(segment)[index];
+            }
+
+            index -= segment.count;
+        }
+
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public int size() {
+        return spilledCount + tail.size();
+    }
+
+    /**
+     * Iterates over the messages in the order they were added, decoding one spilled batch at a time
+     * @return the iterator
+     */
+    @Override
+    public Iterator<Message> iterator() {
+
+        return new Iterator<Message>() {
+
+            private int nextSegment;
+            private Message[] batch = NO_MESSAGES;
+            private int batchPosition;
+            private int tailPosition;
+
+            @Override
+            public boolean hasNext() {
+                return batchPosition < batch.length || nextSegment < segments.size() || tailPosition < tail.size();
+            }
+
+            @Override
+            public Message next() {
+
+                if(batchPosition == batch.length && nextSegment < segments.size()) {
+                    batch = read(segments.get(nextSegment++));
+                    batchPosition = 0;
+                }
+
+                if(batchPosition < batch.length) {
+                    return batch[batchPosition++];
+                }
+
+                // Let go of the last batch before going over the messages in memory
+                batch = NO_MESSAGES;
+                batchPosition = 0;
+
+                if(tailPosition < tail.size()) {
+                    return tail.get(tailPosition++);
+                }
+
+                throw new NoSuchElementException();
+            }
+        };
+    }
+
+    /**
+     * Removes every message, keeping the scratch file for messages added later
+     */
+    @Override
+    public void clear() {
+
+        tail.clear();
+        tailBytes = 0;
+        segments.clear();
+        spilledCount = 0;
+        modCount++;
+
+        if(channel != null) {
+
+            try {
+                channel.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the scratch file. The spilled messages can't be read afterwards. Batches are read with plain reads
+     * rather than mapped, as a file with mappings left can't be deleted on Windows
+     */
+    @Override
+    public void close() {
+
+        if(channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if(!file.delete()) {
+            System.err.println("Couldn't delete scratch file " + file);
+        }
+
+        channel = null;
+    }
+
+    /**
+     * Writes the messages in memory to the end of the scratch file as a batch, one column after another
+     * @throws IOException if the batch couldn't be written
+     */
+    private void spill() throws IOException {
+
+        if(channel == null) {
+
+            file = File.createTempFile("msgbot-messages", ".bin", scratchDirectory);
+            file.deleteOnExit();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        TimestampColumn timestamps = new TimestampColumn();
+
+        for(Message message : tail) {
+            timestamps.add(message.getTimestamp());
+        }
+
+        timestamps.write(out);
+
+        for(Message message : tail) {
+            out.writeInt(dictionary.indexOf(message.getSender()));
+        }
+
+        for(Message message : tail) {
+            out.writeInt(dictionary.indexOf(message.getType()));
+        }
+
+        for(Message message : tail) {
+            writeString(out, message.getContent());
+        }
+
+        for(Message message : tail) {
+
+            out.writeInt(message.getReactions().size());
+
+            for(MessageFormat.Reaction reaction : message.getReactions()) {
+                out.writeInt(dictionary.indexOf(reaction.getReaction()));
+                out.writeInt(dictionary.indexOf(reaction.getSender()));
+            }
+        }
+
+        for(Message message : tail) {
+
+            out.writeInt(message.getUsers().size());
+
+            for(String user : message.getUsers()) {
+                out.writeInt(dictionary.indexOf(user));
+            }
+        }
+
+        for(Message message : tail) {
+
+            out.writeInt(message.getPhotos().size());
+
+            for(String photo : message.getPhotos()) {
+                writeString(out, photo);
+            }
+        }
+
+        out.flush();
+
+        long offset = channel.size();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+
+        segments.add(new Segment(offset, buffer.limit(), tail.size()));
+        spilledCount += tail.size();
+
+        tail.clear();
+        tailBytes = 0;
+    }
+
+    /**
+     * Decodes a spilled batch
+     * @param segment where the batch is in the scratch file
+     * @return the messages of the batch
+     */
+    private MessageFormat[] read(Segment segment) {
+
+        ByteBuffer in = ByteBuffer.allocate(segment.length);
+
+        try {
+
+            while(in.hasRemaining()) {
+
+                if(channel.read(in, segment.offset + in.position()) < 0) {
+                    throw new EOFException("Scratch file " + file + " ends within a batch");
+                }
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        in.flip();
+
+        MessageFormat[] batch = new MessageFormat[segment.count];
+        long[] timestamps = TimestampColumn.readTimestamps(in);
+
+        for(int index = 0; index < batch.length; index++) {
+            batch[index] = new MessageFormat();
+            batch[index].setTimestamp(timestamps[index]);
+        }
+
+        for(MessageFormat message : batch) {
+            message.setSender(dictionary.get(in.getInt()));
+        }
+
+        for(MessageFormat message : batch) {
+            message.setType(dictionary.get(in.getInt()));
+        }
+
+        for(MessageFormat message : batch) {
+            message.setContent(readString(in));
+        }
+
+        for(MessageFormat message : batch) {
+
+            int reactions = in.getInt();
+
+            for(int reaction = 0; reaction < reactions; reaction++) {
+                message.addReaction(dictionary.get(in.getInt()), dictionary.get(in.getInt()));
+            }
+        }
+
+        for(MessageFormat message : batch) {
+
+            int users = in.getInt();
+
+            for(int user = 0; user < users; user++) {
+                message.addUser(dictionary.get(in.getInt()));
+            }
+        }
+
+        for(MessageFormat message : batch) {
+
+            int photos = in.getInt();
+
+            for(int photo = 0; photo < photos; photo++) {
+                message.addPhoto(readString(in));
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Estimates the heap taken by a message
+     * @param message the message
+     * @return the estimated number of bytes
+     */
+    private static long estimateBytes(Message message) {
+
+        long bytes = MESSAGE_BYTES + estimateBytes(message.getContent());
+        bytes += (long) message.getReactions().size() * REACTION_BYTES;
+        bytes += (long) message.getUsers().size() * STRING_BYTES;
+
+        for(String photo : message.getPhotos()) {
+            bytes += estimateBytes(photo);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap taken by a string
+     * @param string the string, may be null
+     * @return the estimated number of bytes
+     */
+    private static long estimateBytes(String string) {
+        return string == null ? 0 : STRING_BYTES + 2L * string.length();
+    }
+
+    /**
+     * Writes a string as its length in UTF-8 bytes followed by the bytes
+     * @param out the stream to be written to
+     * @param string the string, may be null
+     * @throws IOException if the string couldn't be written
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+
+        if(string == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString
+     * @param in the buffer to be read from
+     * @return the string, may be null
+     */
+    private static String readString(ByteBuffer in) {
+
+        int length = in.getInt();
+
+        if(length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Where a spilled batch is in the scratch file
+     */
+    private static class Segment {
+
+        private final long offset;
+        private final int length;
+        private final int count;
+
+        private Segment(long offset, int length, int count) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+    }
+}
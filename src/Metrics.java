@@ -0,0 +1,278 @@
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the statistics of each stage of a run. Stages are timed with spans, which record the wall time,
+ * and the cpu time and allocations of the thread they're opened on. Work a stage hands to other threads is
+ * only counted if those threads open spans of their own. On JVMs with a flight recorder every span is also
+ * a flight recorder event
+ */
+public class Metrics {
+
+    public static final String OUTPUT_PROPERTY = "msgbot.metrics";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    // Whether the JVM has a flight recorder, the event classes can't be loaded otherwise
+    private static final boolean FLIGHT_RECORDER = hasFlightRecorder();
+
+    private final long startNanos = System.nanoTime();
+
+    // Stages in the order they were first recorded
+    private final Map<String, StageStatistics> stages = new LinkedHashMap<>();
+
+    /**
+     * Returns the statistics of a stage, creating them when the stage is first recorded
+     * @param name the name of the stage
+     * @return the statistics of the stage
+     */
+    public synchronized StageStatistics stage(String name) {
+        return stages.computeIfAbsent(name, StageStatistics::new);
+    }
+
+    /**
+     * Starts timing a stage on the current thread
+     * @param name the name of the stage
+     * @return the span, which records the stage when it's closed
+     */
+    public Span start(String name) {
+        return new Span(stage(name));
+    }
+
+    /**
+     * Returns the statistics of every stage recorded so far. They keep being updated as the run goes on
+     * @return the statistics of each stage
+     */
+    public synchronized List<StageStatistics> getStages() {
+        return new ArrayList<>(stages.values());
+    }
+
+    /**
+     * Builds a summary of the run so far: the statistics of each stage, the heap and the garbage collectors
+     * @return the summary
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject snapshot() {
+
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("elapsedMillis", (System.nanoTime() - startNanos) / 1_000_000);
+
+        MemoryUsage heap = MEMORY.getHeapMemoryUsage();
+        JSONObject heapJSON = new JSONObject();
+        heapJSON.put("used", heap.getUsed());
+        heapJSON.put("committed", heap.getCommitted());
+        heapJSON.put("max", heap.getMax());
+        snapshot.put("heap", heapJSON);
+
+        JSONArray collectors = new JSONArray();
+
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+            JSONObject collectorJSON = new JSONObject();
+            collectorJSON.put("name", collector.getName());
+            collectorJSON.put("count", collector.getCollectionCount());
+            collectorJSON.put("millis", collector.getCollectionTime());
+            collectors.add(collectorJSON);
+        }
+
+        snapshot.put("gc", collectors);
+
+        JSONArray stagesJSON = new JSONArray();
+
+        for(StageStatistics stage : getStages()) {
+
+            JSONObject stageJSON = new JSONObject();
+            stageJSON.put("name", stage.getName());
+            stageJSON.put("wallNanos", stage.getNanos());
+            stageJSON.put("cpuNanos", stage.getCpuNanos());
+            stageJSON.put("items", stage.getProcessed());
+            stageJSON.put("rejected", stage.getRejected());
+            stageJSON.put("bytesRead", stage.getBytesRead());
+            stageJSON.put("allocatedBytes", stage.getAllocatedBytes());
+            stageJSON.put("peakHeapBytes", stage.getPeakHeapBytes());
+            stagesJSON.add(stageJSON);
+        }
+
+        snapshot.put("stages", stagesJSON);
+
+        return snapshot;
+    }
+
+    /**
+     * Writes the summary of the run so far as JSON
+     * @param file the file to be written to
+     * @throws IOException if the file couldn't be written
+     */
+    public void writeSummary(File file) throws IOException {
+
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(snapshot().toJSONString());
+        }
+    }
+
+    /**
+     * Tests if the JVM has a flight recorder
+     * @return true if flight recorder events can be created
+     */
+    private static boolean hasFlightRecorder() {
+
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the cpu time of the current thread
+     * @return the cpu time in nanoseconds, 0 if the JVM doesn't measure it
+     */
+    private static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Reads the number of bytes the current thread has allocated
+     * @return the number of bytes, 0 if the JVM doesn't measure it
+     */
+    private static long allocatedBytes() {
+
+        if(THREADS instanceof com.sun.management.ThreadMXBean) {
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+
+            if(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Creates the flight recorder events. Kept apart from the rest of Metrics so the event classes are only
+     * loaded when there's a flight recorder
+     */
+    private static final class FlightRecorder {
+
+        /**
+         * Starts the flight recorder event of a stage
+         * @param stage the name of the stage
+         * @return the event, of the type of the stage's kind
+         */
+        static StageEvent begin(String stage) {
+
+            StageEvent event;
+
+            if(stage.equals("repair")) {
+                event = new StageEvent.FileRepaired();
+            }
+            else if(stage.equals("parse")) {
+                event = new StageEvent.FileParsed();
+            }
+            else if(stage.startsWith("filter.")) {
+                event = new StageEvent.FilterStage();
+            }
+            else if(stage.startsWith("analyse.")) {
+                event = new StageEvent.Aggregation();
+            }
+            else if(stage.startsWith("pdf.chart.")) {
+                event = new StageEvent.ChartRendered();
+            }
+            else {
+                event = new StageEvent.OtherStage();
+            }
+
+            event.stage = stage;
+            event.begin();
+
+            return event;
+        }
+    }
+
+    /**
+     * A stage being timed on one thread. Closed on the thread it was started on
+     */
+    public static class Span implements AutoCloseable {
+
+        private final StageStatistics stage;
+        private final StageEvent event;
+
+        private final long startNanos = System.nanoTime();
+        private final long startCpuNanos = cpuNanos();
+        private final long startAllocatedBytes = allocatedBytes();
+
+        private String subject;
+        private long items;
+        private long rejected;
+        private long bytesRead;
+
+        private Span(StageStatistics stage) {
+            this.stage = stage;
+            event = FLIGHT_RECORDER ? FlightRecorder.begin(stage.getName()) : null;
+        }
+
+        /**
+         * Names what the stage is working on, such as a file or a chart
+         * @param subject the subject of the stage
+         */
+        public void setSubject(String subject) {
+            this.subject = subject;
+        }
+
+        /**
+         * Counts items processed by the stage
+         * @param count the number of items
+         */
+        public void addItems(long count) {
+            items += count;
+        }
+
+        /**
+         * Counts items the stage rejected
+         * @param count the number of items
+         */
+        public void addRejected(long count) {
+            rejected += count;
+        }
+
+        /**
+         * Counts bytes the stage read
+         * @param bytes the number of bytes
+         */
+        public void addBytesRead(long bytes) {
+            bytesRead += bytes;
+        }
+
+        /**
+         * Records the stage
+         */
+        @Override
+        public void close() {
+
+            long allocated = allocatedBytes() - startAllocatedBytes;
+
+            stage.record(System.nanoTime() - startNanos, cpuNanos() - startCpuNanos, allocated, items, rejected,
+                    MEMORY.getHeapMemoryUsage().getUsed());
+            stage.addBytesRead(bytesRead);
+
+            if(event != null) {
+                event.finish(subject, items, rejected, bytesRead, allocated);
+            }
+        }
+    }
+}
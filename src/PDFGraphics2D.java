@@ -0,0 +1,776 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.util.Matrix;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.RenderableImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.AttributedCharacterIterator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Graphics2D that turns drawing operations into PDF content stream operators, so that charts
+ * are written to the PDF as vector graphics instead of raster images.
+ * Coordinates are y-down like on screen; the caller sets up the content stream's transformation
+ * matrix so that they land on the right part of the page. Text is written as glyph outlines so
+ * that no fonts have to be embedded
+ */
+public class PDFGraphics2D extends Graphics2D {
+
+    // Used to measure text the same way it would be measured when rasterizing. Charts are drawn on several
+    // threads and graphics aren't thread safe, so each thread has its own
+    private static final ThreadLocal<Graphics2D> METRICS_GRAPHICS = ThreadLocal.withInitial(() -> {
+
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+
+        return graphics;
+    });
+
+    private final PDDocument document;
+    private final PDPageContentStream contentStream;
+
+    // Transparency states already added to the content stream's resources, keyed by alpha
+    private final Map<Float, PDExtendedGraphicsState> alphaStates;
+
+    private AffineTransform transform = new AffineTransform();
+
+    // Clip in device space, null if nothing is clipped
+    private Shape clip;
+
+    private Paint paint = Color.BLACK;
+    private Color background = Color.WHITE;
+    private Stroke stroke = new BasicStroke();
+    private Font font = new Font("SansSerif", Font.PLAIN, 12);
+    private Composite composite = AlphaComposite.SrcOver;
+    private RenderingHints hints = new RenderingHints(null);
+
+    /**
+     * Creates graphics drawing to the given content stream
+     * @param document the document the content stream belongs to
+     * @param contentStream the content stream to be drawn to
+     */
+    public PDFGraphics2D(PDDocument document, PDPageContentStream contentStream) {
+        this(document, contentStream, new HashMap<>());
+    }
+
+    private PDFGraphics2D(PDDocument document, PDPageContentStream contentStream,
+                          Map<Float, PDExtendedGraphicsState> alphaStates) {
+        this.document = document;
+        this.contentStream = contentStream;
+        this.alphaStates = alphaStates;
+    }
+
+    /*
+     * Painting
+     */
+    @Override
+    public void draw(Shape shape) {
+
+        if(!(stroke instanceof BasicStroke)) {
+            fill(stroke.createStrokedShape(shape));
+            return;
+        }
+
+        try {
+
+            beginOperation(true);
+            BasicStroke basicStroke = (BasicStroke) stroke;
+            float[] dash = basicStroke.getDashArray();
+
+            contentStream.setLineWidth(basicStroke.getLineWidth());
+            contentStream.setLineCapStyle(basicStroke.getEndCap());
+            contentStream.setLineJoinStyle(basicStroke.getLineJoin());
+
+            // The miter limit is only meaningful, and only guaranteed to be valid, for mitered joins
+            if(basicStroke.getLineJoin() == BasicStroke.JOIN_MITER) {
+                contentStream.setMiterLimit(basicStroke.getMiterLimit());
+            }
+
+            contentStream.setLineDashPattern(dash == null ? new float[0] : dash, basicStroke.getDashPhase());
+
+            if(writePath(shape)) {
+                contentStream.stroke();
+            }
+
+            contentStream.restoreGraphicsState();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void fill(Shape shape) {
+
+        try {
+
+            beginOperation(false);
+
+            if(writePath(shape)) {
+
+                if(shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+                    contentStream.fillEvenOdd();
+                } else {
+                    contentStream.fill();
+                }
+            }
+
+            contentStream.restoreGraphicsState();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Saves the graphics state and applies the clip, transform and paint for a drawing operation
+     * @param stroking whether the operation strokes or fills
+     * @throws IOException if the content stream cannot be written to
+     */
+    private void beginOperation(boolean stroking) throws IOException {
+
+        contentStream.saveGraphicsState();
+
+        if(clip != null && writePath(clip)) {
+            contentStream.clip();
+        }
+
+        contentStream.transform(new Matrix(transform));
+
+        Color color = getPaintColor();
+        float alpha = color.getAlpha() / 255f;
+
+        if(composite instanceof AlphaComposite) {
+            alpha *= ((AlphaComposite) composite).getAlpha();
+        }
+
+        if(alpha < 1) {
+            contentStream.setGraphicsStateParameters(getAlphaState(alpha));
+        }
+
+        Color opaque = new Color(color.getRed(), color.getGreen(), color.getBlue());
+
+        if(stroking) {
+            contentStream.setStrokingColor(opaque);
+        } else {
+            contentStream.setNonStrokingColor(opaque);
+        }
+    }
+
+    /**
+     * Approximates the current paint with a single color
+     * @return the color to paint with
+     */
+    private Color getPaintColor() {
+
+        if(paint instanceof Color) {
+            return (Color) paint;
+        }
+
+        if(paint instanceof GradientPaint) {
+            return ((GradientPaint) paint).getColor1();
+        }
+
+        return Color.GRAY;
+    }
+
+    /**
+     * Returns a graphics state with the given transparency
+     * @param alpha the transparency
+     * @return the graphics state
+     */
+    private PDExtendedGraphicsState getAlphaState(float alpha) {
+
+        return alphaStates.computeIfAbsent(alpha, key -> {
+
+            PDExtendedGraphicsState state = new PDExtendedGraphicsState();
+            state.setNonStrokingAlphaConstant(key);
+            state.setStrokingAlphaConstant(key);
+            return state;
+        });
+    }
+
+    /**
+     * Writes the outline of a shape to the content stream
+     * @param shape the shape to be written
+     * @return true if anything was written, false if the shape is empty
+     * @throws IOException if the content stream cannot be written to
+     */
+    private boolean writePath(Shape shape) throws IOException {
+
+        PathIterator iterator = shape.getPathIterator(null);
+        float[] coords = new float[6];
+        float currentX = 0;
+        float currentY = 0;
+        boolean written = false;
+
+        for(; !iterator.isDone(); iterator.next()) {
+
+            switch(iterator.currentSegment(coords)) {
+
+                case PathIterator.SEG_MOVETO :
+                    contentStream.moveTo(coords[0], coords[1]);
+                    currentX = coords[0];
+                    currentY = coords[1];
+                    break;
+
+                case PathIterator.SEG_LINETO :
+                    contentStream.lineTo(coords[0], coords[1]);
+                    currentX = coords[0];
+                    currentY = coords[1];
+                    break;
+
+                case PathIterator.SEG_QUADTO :
+                    // PDF only has cubic curves, so raise the degree of the quadratic one
+                    contentStream.curveTo(
+                            currentX + 2f / 3 * (coords[0] - currentX), currentY + 2f / 3 * (coords[1] - currentY),
+                            coords[2] + 2f / 3 * (coords[0] - coords[2]), coords[3] + 2f / 3 * (coords[1] - coords[3]),
+                            coords[2], coords[3]);
+                    currentX = coords[2];
+                    currentY = coords[3];
+                    break;
+
+                case PathIterator.SEG_CUBICTO :
+                    contentStream.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    currentX = coords[4];
+                    currentY = coords[5];
+                    break;
+
+                case PathIterator.SEG_CLOSE :
+                    contentStream.closePath();
+                    break;
+            }
+
+            written = true;
+        }
+
+        return written;
+    }
+
+    /*
+     * Text
+     */
+    @Override
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+
+        if(!str.isEmpty()) {
+            drawGlyphVector(font.createGlyphVector(getFontRenderContext(), str), x, y);
+        }
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+
+        if(iterator.getEndIndex() > iterator.getBeginIndex()) {
+            TextLayout layout = new TextLayout(iterator, getFontRenderContext());
+            fill(layout.getOutline(AffineTransform.getTranslateInstance(x, y)));
+        }
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector glyphs, float x, float y) {
+        fill(glyphs.getOutline(x, y));
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return METRICS_GRAPHICS.get().getFontRenderContext();
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font font) {
+        return METRICS_GRAPHICS.get().getFontMetrics(font);
+    }
+
+    /*
+     * Images
+     */
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+
+        BufferedImage image = toBufferedImage(img);
+
+        if(image == null) {
+            return false;
+        }
+
+        try {
+
+            PDImageXObject pdImage = LosslessFactory.createFromImage(document, image);
+
+            contentStream.saveGraphicsState();
+
+            if(clip != null && writePath(clip)) {
+                contentStream.clip();
+            }
+
+            contentStream.transform(new Matrix(transform));
+
+            // Images are drawn bottom-up, so flip them back inside of their bounds
+            contentStream.transform(new Matrix(1, 0, 0, -1, x, y + height));
+            contentStream.drawImage(pdImage, 0, 0, width, height);
+            contentStream.restoreGraphicsState();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return drawImage(img, x, y, img.getWidth(observer), img.getHeight(observer), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        return drawImage(img, x, y, img.getWidth(observer), img.getHeight(observer), bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+
+        Paint oldPaint = paint;
+        setPaint(bgcolor);
+        fillRect(x, y, width, height);
+        setPaint(oldPaint);
+
+        return drawImage(img, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                             ImageObserver observer) {
+
+        BufferedImage image = toBufferedImage(img);
+
+        if(image == null) {
+            return false;
+        }
+
+        BufferedImage part = image.getSubimage(Math.min(sx1, sx2), Math.min(sy1, sy2),
+                Math.abs(sx2 - sx1), Math.abs(sy2 - sy1));
+
+        return drawImage(part, Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1),
+                observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                             Color bgcolor, ImageObserver observer) {
+
+        Paint oldPaint = paint;
+        setPaint(bgcolor);
+        fillRect(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1));
+        setPaint(oldPaint);
+
+        return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver observer) {
+
+        AffineTransform oldTransform = getTransform();
+        transform(xform);
+        boolean drawn = drawImage(img, 0, 0, observer);
+        setTransform(oldTransform);
+
+        return drawn;
+    }
+
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        drawImage(op == null ? img : op.filter(img, null), x, y, null);
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+
+        if(img instanceof BufferedImage) {
+            drawImage((BufferedImage) img, xform, null);
+        }
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        drawRenderedImage(img.createDefaultRendering(), xform);
+    }
+
+    /**
+     * Converts an image to a buffered image
+     * @param img the image to be converted
+     * @return the buffered image or null if the image isn't loaded yet
+     */
+    private BufferedImage toBufferedImage(Image img) {
+
+        if(img instanceof BufferedImage) {
+            return (BufferedImage) img;
+        }
+
+        int width = img.getWidth(null);
+        int height = img.getHeight(null);
+
+        if(width <= 0 || height <= 0) {
+            return null;
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(img, 0, 0, null);
+        graphics.dispose();
+
+        return image;
+    }
+
+    /*
+     * Shapes
+     */
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+
+        Paint oldPaint = paint;
+        setPaint(background);
+        fillRect(x, y, width, height);
+        setPaint(oldPaint);
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+
+        if(nPoints < 2) {
+            return;
+        }
+
+        Path2D.Float path = new Path2D.Float();
+        path.moveTo(xPoints[0], yPoints[0]);
+
+        for(int index = 1; index < nPoints; index++) {
+            path.lineTo(xPoints[index], yPoints[index]);
+        }
+
+        draw(path);
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape shape, boolean onStroke) {
+
+        Shape deviceShape = transform.createTransformedShape(onStroke ? stroke.createStrokedShape(shape) : shape);
+        return deviceShape.intersects(rect);
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        // Content already written to a PDF cannot be read back
+    }
+
+    /*
+     * Clipping
+     */
+    @Override
+    public void clip(Shape shape) {
+
+        if(shape == null) {
+            clip = null;
+            return;
+        }
+
+        Area area = new Area(transform.createTransformedShape(shape));
+
+        if(clip != null) {
+            area.intersect(new Area(clip));
+        }
+
+        clip = area;
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(Shape shape) {
+        clip = shape == null ? null : transform.createTransformedShape(shape);
+    }
+
+    @Override
+    public Shape getClip() {
+
+        if(clip == null) {
+            return null;
+        }
+
+        try {
+            return transform.createInverse().createTransformedShape(clip);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+
+        Shape userClip = getClip();
+        return userClip == null ? null : userClip.getBounds();
+    }
+
+    /*
+     * Transformations
+     */
+    @Override
+    public void translate(int x, int y) {
+        transform.translate(x, y);
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        transform.translate(tx, ty);
+    }
+
+    @Override
+    public void rotate(double theta) {
+        transform.rotate(theta);
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        transform.rotate(theta, x, y);
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        transform.scale(sx, sy);
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        transform.shear(shx, shy);
+    }
+
+    @Override
+    public void transform(AffineTransform tx) {
+        transform.concatenate(tx);
+    }
+
+    @Override
+    public void setTransform(AffineTransform tx) {
+        transform = new AffineTransform(tx);
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    /*
+     * Graphics state
+     */
+    @Override
+    public Graphics create() {
+
+        PDFGraphics2D copy = new PDFGraphics2D(document, contentStream, alphaStates);
+        copy.transform = new AffineTransform(transform);
+        copy.clip = clip;
+        copy.paint = paint;
+        copy.background = background;
+        copy.stroke = stroke;
+        copy.font = font;
+        copy.composite = composite;
+        copy.hints = (RenderingHints) hints.clone();
+
+        return copy;
+    }
+
+    @Override
+    public void dispose() {
+        // Every operation restores the content stream's state, so there is nothing to release
+    }
+
+    @Override
+    public Color getColor() {
+        return paint instanceof Color ? (Color) paint : getPaintColor();
+    }
+
+    @Override
+    public void setColor(Color color) {
+
+        if(color != null) {
+            paint = color;
+        }
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+
+        if(paint != null) {
+            this.paint = paint;
+        }
+    }
+
+    @Override
+    public Paint getPaint() {
+        return paint;
+    }
+
+    @Override
+    public void setPaintMode() {
+        composite = AlphaComposite.SrcOver;
+    }
+
+    @Override
+    public void setXORMode(Color color) {
+        // XOR painting has no equivalent in PDF
+    }
+
+    @Override
+    public Font getFont() {
+        return font;
+    }
+
+    @Override
+    public void setFont(Font font) {
+
+        if(font != null) {
+            this.font = font;
+        }
+    }
+
+    @Override
+    public void setComposite(Composite composite) {
+        this.composite = composite;
+    }
+
+    @Override
+    public Composite getComposite() {
+        return composite;
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        background = color;
+    }
+
+    @Override
+    public Color getBackground() {
+        return background;
+    }
+
+    @Override
+    public void setStroke(Stroke stroke) {
+        this.stroke = stroke;
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return stroke;
+    }
+
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        hints.put(hintKey, hintValue);
+    }
+
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return hints.get(hintKey);
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        this.hints = new RenderingHints(null);
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints) hints.clone();
+    }
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return METRICS_GRAPHICS.get().getDeviceConfiguration();
+    }
+}
@@ -1,16 +1,34 @@
+import javafx.util.Pair;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.LayerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.util.Matrix;
+import org.jfree.chart.JFreeChart;
 import org.vandeseer.easytable.TableDrawer;
 import org.vandeseer.easytable.structure.Row;
 import org.vandeseer.easytable.structure.Table;
 import org.vandeseer.easytable.structure.cell.TextCell;
 
-import java.io.IOException;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
 import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static org.apache.pdfbox.pdmodel.font.PDType1Font.HELVETICA_BOLD;
@@ -21,58 +39,457 @@ import static org.vandeseer.easytable.settings.HorizontalAlignment.CENTER;
  */
 public class PDFWriter {
 
+    public static final String OUTPUT_PROPERTY = "msgbot.report";
+    public static final String SUMMARY_PROPERTY = "msgbot.summary";
+
+    private static final String DEFAULT_OUTPUT = "C:\\chart.pdf";
+
     final int TOP_MARGIN = 20;
     final int LEFT_MARGIN = 10;
-    final int NUMBER_OF_PAGES = 7;
+
+    // Users whose words are listed side by side in one table, further users continue on the next page
+    final int USERS_PER_TABLE = 3;
+    final int WORDS_PER_TABLE = 5;
+    final int TABLE_COLUMN_WIDTH = 96;
 
     private GroupStatistics statistics;
     private ChartCreator chartCreator;
 
-    // Users who's statistics should be printed
-    String[] users;
+    // Renders the charts while the pages are being written, null if a pool is created for each file
+    private ExecutorService executor;
+
+    // Whether charts are drawn as vector graphics rather than embedded as raster images
+    private boolean vectorCharts = true;
+
+    // Bytes of the document kept in memory before the rest goes to a scratch file, negative for no limit
+    private long memoryBudget = -1;
+
+    // Where scratch files are created, null for the system's temporary directory
+    private File scratchDirectory;
+
+    // Renders of charts kept from earlier files, null if charts are always rendered
+    private ChartCache chartCache = ChartCache.getDefault();
+
+    // Time and resources spent on each stage of writing
+    private Metrics metrics = new Metrics();
+
+    // Charts being prepared for the current file, keyed by their names
+    private Map<String, Future<RenderedChart>> charts = new HashMap<>();
 
     /**
      * Creates a pdf writer using the statistics to be written to file
      * @param statistics the stats to be printed
      */
     public PDFWriter(GroupStatistics statistics) {
+        this(statistics, null);
+    }
+
+    /**
+     * Creates a pdf writer that renders charts on the given executor
+     * @param statistics the stats to be printed
+     * @param executor the executor charts are rendered on, null to use a pool for each file
+     */
+    public PDFWriter(GroupStatistics statistics, ExecutorService executor) {
+        this(statistics, executor, ChartStyle.getDefault());
+    }
+
+    /**
+     * Creates a pdf writer that renders charts with the given style on the given executor
+     * @param statistics the stats to be printed
+     * @param executor the executor charts are rendered on, null to use a pool for each file
+     * @param style the fonts and templates of the charts
+     */
+    public PDFWriter(GroupStatistics statistics, ExecutorService executor, ChartStyle style) {
         this.statistics = statistics;
-        chartCreator = new ChartCreator(statistics);
-        getUsers();
+        this.executor = executor;
+        chartCreator = new ChartCreator(statistics, style);
     }
 
     /**
-     * Creates a pdf file with all of the given statistics
+     * Creates a pdf file with all of the given statistics at the location configured by system properties.
+     * If a summary location is configured, the summary is written there before the charts are finished
      */
     public void writeToPDF() {
 
-        PDDocument document = new PDDocument();
+        String summary = System.getProperty(SUMMARY_PROPERTY);
+
+        try {
+            writeToPDF(summary == null ? null : new File(summary),
+                    new File(System.getProperty(OUTPUT_PROPERTY, DEFAULT_OUTPUT)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a pdf file with all of the given statistics
+     * @param file the file to be written to
+     * @throws IOException if the pdf couldn't be written
+     */
+    public void writeToPDF(File file) throws IOException {
+        writeToPDF(null, file);
+    }
+
+    /**
+     * Creates a summary pdf file as soon as it's written, then a pdf file with all of the given statistics
+     * @param summaryFile the file the summary is written to, null for no summary
+     * @param file the file the full report is written to
+     * @throws IOException if a pdf couldn't be written
+     */
+    public void writeToPDF(File summaryFile, File file) throws IOException {
+
+        // Each file is only opened once its pdf is ready, so a report that fails to be built leaves the
+        // previous file in place and the summary is closed as soon as it's written
+        writeReports(summaryFile == null ? null : document -> save(document, summaryFile),
+                document -> save(document, file));
+    }
+
+    /**
+     * Saves a pdf to a file
+     * @param document the pdf to be saved
+     * @param file the file to be written to
+     * @throws IOException if the file couldn't be written
+     */
+    private static void save(PDDocument document, File file) throws IOException {
+
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            document.save(out);
+        }
+    }
+
+    /**
+     * Writes a pdf with all of the given statistics to a stream. Pages are added one at a time
+     * and, with a memory budget, their contents are moved to a scratch file as they are finished
+     * @param out the stream to be written to, left open
+     * @throws IOException if the pdf couldn't be written
+     */
+    public void writeToPDF(OutputStream out) throws IOException {
+        writeToPDF(null, out);
+    }
+
+    /**
+     * Writes a summary pdf with the first page and the word tables, which need no charts, while the charts
+     * are still being rendered. Then writes the pdf with all of the given statistics once its charts are ready
+     * @param summaryOut the stream the summary is written and flushed to, null for no summary, left open
+     * @param out the stream the full report is written to, left open
+     * @throws IOException if a pdf couldn't be written
+     */
+    public void writeToPDF(OutputStream summaryOut, OutputStream out) throws IOException {
+
+        writeReports(summaryOut == null ? null : document -> {
+            document.save(summaryOut);
+            summaryOut.flush();
+        }, document -> document.save(out));
+    }
+
+    /**
+     * Writes a summary pdf with the first page and the word tables while the charts are still being rendered,
+     * then the pdf with all of the given statistics once its charts are ready
+     * @param summaryOutput where the summary is saved, null for no summary
+     * @param output where the full report is saved
+     * @throws IOException if a pdf couldn't be written
+     */
+    private void writeReports(Output summaryOutput, Output output) throws IOException {
+
+        ExecutorService renderExecutor = executor != null ? executor :
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+
+            // Charts are independent of each other, so they are all rendered while the pages are written
+            renderCharts(renderExecutor);
+
+            if(summaryOutput != null) {
+
+                try(Metrics.Span span = metrics.start("pdf.summary"); PDDocument summary = createDocument()) {
+
+                    writePageOne(summary);
+                    writeWordPages(summary);
 
-        for(int pageNo = 0; pageNo < NUMBER_OF_PAGES; pageNo++) {
-            PDPage page = new PDPage();
+                    summaryOutput.save(summary);
+                    span.addItems(summary.getNumberOfPages());
+                }
+            }
+
+            try(PDDocument document = createDocument()) {
+
+                // Includes the time spent waiting for charts that aren't rendered yet
+                try(Metrics.Span span = metrics.start("pdf.pages")) {
+
+                    writePageOne(document);
+                    writePageTwo(document);
+                    writePageThree(document);
+                    writePageFour(document);
+                    writePageFive(document);
+                    writePageSix(document);
+                    writeWordPages(document);
+
+                    span.addItems(document.getNumberOfPages());
+                }
+
+                try(Metrics.Span span = metrics.start("pdf.save")) {
+                    span.addItems(document.getNumberOfPages());
+                    output.save(document);
+                }
+            }
+
+        } finally {
+
+            for(Future<RenderedChart> chart : charts.values()) {
+                chart.cancel(true);
+            }
+
+            charts.clear();
+
+            if(executor == null) {
+                renderExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Creates an empty document within the memory budget
+     * @return the document
+     */
+    private PDDocument createDocument() {
+
+        MemoryUsageSetting memoryUsage = memoryBudget < 0 ? MemoryUsageSetting.setupMainMemoryOnly() :
+                MemoryUsageSetting.setupMixed(memoryBudget).setTempDir(scratchDirectory);
+
+        return new PDDocument(memoryUsage);
+    }
+
+    /**
+     * Adds a new page to the end of the document
+     * @param document the pdf document to be written to
+     * @return the page
+     */
+    private PDPage addPage(PDDocument document) {
+
+        PDPage page = new PDPage();
+        document.addPage(page);
+        return page;
+    }
+
+    /**
+     * Starts preparing every chart of the file
+     * @param renderExecutor the executor the charts are prepared on
+     */
+    private void renderCharts(ExecutorService renderExecutor) {
+
+        renderChart(renderExecutor, "messagesSend", chartCreator::messagesSendChart);
+        renderChart(renderExecutor, "spamMessagesSend", chartCreator::spamMessagesSendChart);
+        renderChart(renderExecutor, "wordsSend", chartCreator::wordsSendChart);
+        renderChart(renderExecutor, "spamWordsSend", chartCreator::spamWordsSendChart);
+        renderChart(renderExecutor, "charsSend", chartCreator::charsSendChart);
+        renderChart(renderExecutor, "spamCharsSend", chartCreator::spamCharsSendChart);
+        renderChart(renderExecutor, "averageMessage", chartCreator::averageMessageChart);
+        renderChart(renderExecutor, "reactions", chartCreator::reactionsChart);
+        renderChart(renderExecutor, "dailyMessages", chartCreator::dailyMessagesChart);
+        renderChart(renderExecutor, "monthlyMessages", chartCreator::monthlyMessagesChart);
+        renderChart(renderExecutor, "hourlyMessages", chartCreator::hourlyMessagesChart);
+        renderChart(renderExecutor, "actionsMade", chartCreator::actionsMadeChart);
+        renderChart(renderExecutor, "wordFrequency", chartCreator::wordFrequencyChart);
+    }
+
+    /**
+     * Starts creating a chart and either rasterizing it or, if it's drawn as vector graphics, drawing it to
+     * a single page pdf, so the writer only has to import the page. With a chart cache the chart is always
+     * rendered to a single page pdf, or read from the cache if a chart with the same data was rendered before
+     * @param renderExecutor the executor the chart is prepared on
+     * @param name the name of the chart
+     * @param creator creates the chart
+     */
+    private void renderChart(ExecutorService renderExecutor, String name, Supplier<JFreeChart> creator) {
+
+        boolean rasterize = !vectorCharts;
+        ChartCache cache = chartCache;
+        Metrics chartMetrics = metrics;
+
+        charts.put(name, renderExecutor.submit(() -> {
+
+            // Recorded on the rendering thread, so its cpu time and allocations are counted
+            try(Metrics.Span span = chartMetrics.start("pdf.chart." + name)) {
+
+                span.setSubject(name);
+                span.addItems(1);
+
+                JFreeChart chart = creator.get();
+                String variant = (rasterize ? "raster:" : "vector:") + chartCreator.getStyle().getFamily();
+                String key = cache == null ? null : cache.keyOf(chart, variant);
+
+                if(key == null) {
+                    return rasterize ? new RenderedChart(chartCreator.createImage(chart), null) :
+                            new RenderedChart(null, renderPage(chart, false));
+                }
+
+                byte[] page = cache.get(key);
+
+                if(page == null) {
+                    page = renderPage(chart, rasterize);
+                    cache.put(key, page);
+                }
+                else {
+                    span.addBytesRead(page.length);
+                }
+
+                return new RenderedChart(null, page);
+            }
+        }));
+    }
+
+    /**
+     * Renders a chart to a single page pdf the size of the chart's layout
+     * @param chart the chart to be rendered
+     * @param rasterize true to embed the chart as a raster image rather than draw it as vector graphics
+     * @return the pdf file
+     * @throws IOException if the pdf couldn't be written
+     */
+    private byte[] renderPage(JFreeChart chart, boolean rasterize) throws IOException {
+
+        try(PDDocument document = new PDDocument()) {
+
+            PDPage page = new PDPage(new PDRectangle(ChartCreator.CHART_WIDTH, ChartCreator.CHART_HEIGHT));
             document.addPage(page);
+
+            try(PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+
+                if(rasterize) {
+                    contentStream.drawImage(LosslessFactory.createFromImage(document, chartCreator.createImage(chart)),
+                            0, 0, ChartCreator.CHART_WIDTH, ChartCreator.CHART_HEIGHT);
+                }
+                else {
+                    drawVectorChart(document, contentStream, chart);
+                }
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
         }
+    }
 
-        PDPage currentPage = document.getPage(0);
-        PDRectangle pageBox = currentPage.getMediaBox();
-        String title = "Group Chat Analysis";
+    /**
+     * Waits for a chart to be prepared
+     * @param name the name of the chart
+     * @return the prepared chart
+     * @throws IOException if the chart couldn't be prepared
+     */
+    private RenderedChart getChart(String name) throws IOException {
 
         try {
+            // Each chart is drawn once, so it's released as soon as it's taken
+            return charts.remove(name).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while rendering chart " + name);
+        } catch (ExecutionException e) {
+            throw new IOException("could not render chart " + name, e.getCause());
+        }
+    }
 
-            writePageOne(document);
-            writePageTwo(document);
-            writePageThree(document);
-            writePageFour(document);
-            writePageFive(document);
-            writePageSix(document);
-            writePageSeven(document);
+    /**
+     * Draws a chart to a page
+     * @param document the pdf document to be written to
+     * @param contentStream the content stream of the page
+     * @param name the name of the chart
+     * @param x the left edge of the chart on the page
+     * @param y the bottom edge of the chart on the page
+     * @param width the width of the chart on the page
+     * @param height the height of the chart on the page
+     * @throws IOException if the chart couldn't be prepared or written
+     */
+    private void drawChart(PDDocument document, PDPageContentStream contentStream, String name,
+                           float x, float y, float width, float height) throws IOException {
 
-            document.save("C:\\chart.pdf");
-            document.close();
+        RenderedChart rendered = getChart(name);
 
-        } catch (Exception e) {
-            e.getStackTrace();
+        if(rendered.image != null) {
+            contentStream.drawImage(LosslessFactory.createFromImage(document, rendered.image), x, y, width, height);
+            return;
         }
+
+        // Scale the chart's layout to its place on the page
+        contentStream.saveGraphicsState();
+        contentStream.transform(new Matrix(width / ChartCreator.CHART_WIDTH, 0, 0,
+                height / ChartCreator.CHART_HEIGHT, x, y));
+
+        // The page's objects are copied into the document, so the page can be closed straight away
+        try(PDDocument page = PDDocument.load(rendered.page)) {
+            contentStream.drawForm(new LayerUtility(document).importPageAsForm(page, 0));
+        }
+
+        contentStream.restoreGraphicsState();
+    }
+
+    /**
+     * Draws a chart as vector graphics into the area from the origin to the size of the chart's layout
+     * @param document the pdf document to be written to
+     * @param contentStream the content stream of the page
+     * @param chart the chart to be drawn
+     * @throws IOException if the chart couldn't be written
+     */
+    private void drawVectorChart(PDDocument document, PDPageContentStream contentStream, JFreeChart chart)
+            throws IOException {
+
+        final int WIDTH = ChartCreator.CHART_WIDTH;
+        final int HEIGHT = ChartCreator.CHART_HEIGHT;
+
+        // Flip the area to the y-down coordinates the chart is drawn in
+        contentStream.saveGraphicsState();
+
+        try {
+
+            contentStream.transform(new Matrix(1, 0, 0, -1, 0, HEIGHT));
+
+            PDFGraphics2D graphics = new PDFGraphics2D(document, contentStream);
+            graphics.clip(new Rectangle(0, 0, WIDTH, HEIGHT));
+
+            try {
+                chart.draw(graphics, new Rectangle2D.Double(0, 0, WIDTH, HEIGHT));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                graphics.dispose();
+            }
+
+        } finally {
+            contentStream.restoreGraphicsState();
+        }
+    }
+
+    /**
+     * Sets whether charts are drawn as vector graphics or embedded as raster images
+     * @param vectorCharts true to draw charts as vector graphics
+     */
+    public void setVectorCharts(boolean vectorCharts) {
+        this.vectorCharts = vectorCharts;
+    }
+
+    /**
+     * Limits how much of the document is kept in memory while it's written, the rest is kept in scratch files
+     * @param memoryBudget the number of bytes kept in memory, negative to keep the whole document in memory
+     * @param scratchDirectory where scratch files are created, null for the system's temporary directory
+     */
+    public void setMemoryBudget(long memoryBudget, File scratchDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /**
+     * Sets the cache renders of charts are kept in between files
+     * @param chartCache the cache, null to render every chart
+     */
+    public void setChartCache(ChartCache chartCache) {
+        this.chartCache = chartCache;
+    }
+
+    /**
+     * Sets the registry the stages of writing are recorded in
+     * @param metrics the registry
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -82,7 +499,7 @@ public class PDFWriter {
      */
     private void writePageOne(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(0);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         String title = "Group Chat Analysis";
 
@@ -118,7 +535,7 @@ public class PDFWriter {
      */
     private void writePageTwo(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(1);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -127,36 +544,22 @@ public class PDFWriter {
         final int WIDTH_TWO_CHARTS = 300;
         final int HEIGHT_THREE_CHARTS = 210;
 
-        PDImageXObject image;
-
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.messagesSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "messagesSend", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - HEIGHT_THREE_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.spamMessagesSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
+        drawChart(document, contentStream, "spamMessagesSend", SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
                 pageBox.getHeight() - HEIGHT_THREE_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.wordsSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "wordsSend", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - TOP_MARGIN_THREE_CHARTS - 2 *HEIGHT_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.spamWordsSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
+        drawChart(document, contentStream, "spamWordsSend", SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
                 pageBox.getHeight() - TOP_MARGIN_THREE_CHARTS - 2 * HEIGHT_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.charsSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "charsSend", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - TOP_MARGIN_THREE_CHARTS - 3 * HEIGHT_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.spamCharsSendChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
+        drawChart(document, contentStream, "spamCharsSend", SIDE_MARGIN_THREE_CHARTS + WIDTH_TWO_CHARTS,
                 pageBox.getHeight() - TOP_MARGIN_THREE_CHARTS - 3 * HEIGHT_THREE_CHARTS, WIDTH_TWO_CHARTS, HEIGHT_THREE_CHARTS);
 
         contentStream.close();
@@ -169,7 +572,7 @@ public class PDFWriter {
      */
     private void writePageThree(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(2);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -179,15 +582,9 @@ public class PDFWriter {
         final int WIDTH_ONE_CHART = 600;
         final int HEIGHT_TWO_CHARTS = 300;
 
-        PDImageXObject image;
-
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.averageMessageChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "averageMessage", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.reactionsChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "reactions", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - 2 * HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS - BETWEEN_CHART_MARGIN,
                 WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
 
@@ -201,7 +598,7 @@ public class PDFWriter {
      */
     private void writePageFour(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(2);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -211,15 +608,9 @@ public class PDFWriter {
         final int WIDTH_ONE_CHART = 600;
         final int HEIGHT_TWO_CHARTS = 300;
 
-        PDImageXObject image;
-
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.dailyMessagesChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "dailyMessages", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.monthlyMessagesChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "monthlyMessages", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - 2 * HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS - BETWEEN_CHART_MARGIN,
                 WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
 
@@ -233,7 +624,7 @@ public class PDFWriter {
      */
     private void writePageFive(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(2);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -243,15 +634,9 @@ public class PDFWriter {
         final int WIDTH_ONE_CHART = 600;
         final int HEIGHT_TWO_CHARTS = 300;
 
-        PDImageXObject image;
-
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.hourlyMessagesChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "hourlyMessages", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.actionsMadeChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "actionsMade", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - 2 * HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS - BETWEEN_CHART_MARGIN,
                 WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
 
@@ -265,7 +650,7 @@ public class PDFWriter {
      */
     private void writePageSix(PDDocument document) throws IOException {
 
-        PDPage currentPage = document.getPage(2);
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -274,24 +659,49 @@ public class PDFWriter {
         final int WIDTH_ONE_CHART = 600;
         final int HEIGHT_TWO_CHARTS = 300;
 
-        PDImageXObject image;
-
-        image = PDImageXObject.createFromByteArray( document,
-                chartCreator.imageAsByteArray(chartCreator.wordFrequencyChart()), "");
-        contentStream.drawImage(image, SIDE_MARGIN_THREE_CHARTS,
+        drawChart(document, contentStream, "wordFrequency", SIDE_MARGIN_THREE_CHARTS,
                 pageBox.getHeight() - HEIGHT_TWO_CHARTS - TOP_MARGIN_THREE_CHARTS, WIDTH_ONE_CHART, HEIGHT_TWO_CHARTS);
 
         contentStream.close();
     }
 
     /**
-     * Creates the seventh page of the pdf
+     * Creates the pages listing each user's most common words, one page for every group of users
      * @param document the pdf document to be written to
      * @throws IOException if content stream cannot be initialized
      */
-    private void writePageSeven(PDDocument document) throws IOException {
+    private void writeWordPages(PDDocument document) throws IOException {
+
+        List<String> names = new ArrayList<>();
+        List<List<List<Pair<String, Integer>>>> words = new ArrayList<>();
+
+        // Single pass over the users, each user's words for every word length
+        for(Map.Entry<String, UserStatistics> entry : statistics.getUserStats().entrySet()) {
+
+            UserStatistics user = entry.getValue();
+            names.add(entry.getKey().split(" ")[0]);
+            words.add(Arrays.asList(user.getCommonWordsFour(), user.getCommonWordsFive(), user.getCommonWordsSix(),
+                    user.getCommonWordsSeven(), user.getCommonWordsEight(), user.getCommonWordsNine()));
+        }
+
+        for(int first = 0; first < names.size(); first += USERS_PER_TABLE) {
 
-        PDPage currentPage = document.getPage(2);
+            int last = Math.min(first + USERS_PER_TABLE, names.size());
+            writeWordPage(document, names.subList(first, last), words.subList(first, last));
+        }
+    }
+
+    /**
+     * Creates a page with a table of most common words for each word length
+     * @param document the pdf document to be written to
+     * @param names the first names of the users on the page
+     * @param words the common words of each user, for each word length
+     * @throws IOException if content stream cannot be initialized
+     */
+    private void writeWordPage(PDDocument document, List<String> names,
+                               List<List<List<Pair<String, Integer>>>> words) throws IOException {
+
+        PDPage currentPage = addPage(document);
         PDRectangle pageBox = currentPage.getMediaBox();
         PDPageContentStream contentStream = new PDPageContentStream(document, currentPage);
 
@@ -309,61 +719,36 @@ public class PDFWriter {
         int tableTopMargin = 80;
         int tableLeftMargin = 10;
         int tableBetweenPad = 16;
-        int tableWidth = 96 * 3;
-
-        TableDrawer tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin)
-                .startY(pageBox.getHeight() - tableTopMargin)
-                .table(getTableOne())
-                .build();
-
-        tableDrawer.draw();
-
-        tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin + tableWidth + tableBetweenPad)
-                .startY(pageBox.getHeight() - tableTopMargin)
-                .table(getTableTwo())
-                .build();
-
-        tableDrawer.draw();
-
-        tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin)
-                .startY(pageBox.getHeight() - tableTopMargin - 100)
-                .table(getTableThree())
-                .build();
-
-        tableDrawer.draw();
-
-        tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin + tableWidth + tableBetweenPad)
-                .startY(pageBox.getHeight() - tableTopMargin - 100)
-                .table(getTableFour())
-                .build();
-
-        tableDrawer.draw();
-
-        tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin)
-                .startY(pageBox.getHeight() - tableTopMargin - 200)
-                .table(getTableFive())
-                .build();
-
-        tableDrawer.draw();
-
-        tableDrawer = TableDrawer.builder()
-                .contentStream(contentStream)
-                .startX(tableLeftMargin + tableWidth + tableBetweenPad)
-                .startY(pageBox.getHeight() - tableTopMargin - 200)
-                .table(getTableSix())
-                .build();
-
-        tableDrawer.draw();
+        int tableHeight = 100;
+        int tableWidth = TABLE_COLUMN_WIDTH * USERS_PER_TABLE;
+
+        // Two tables side by side, shortest words first
+        for(int length = 0; length < words.get(0).size(); length++) {
+
+            Table.TableBuilder tableBuilder = buildTable(names);
+
+            for(int row = 0; row < WORDS_PER_TABLE; row++) {
+
+                List<String> cells = new ArrayList<>(names.size());
+
+                for(List<List<Pair<String, Integer>>> userWords : words) {
+
+                    List<Pair<String, Integer>> common = userWords.get(length);
+                    cells.add(row < common.size() ? common.get(row).getKey() + " - " + common.get(row).getValue() : "");
+                }
+
+                addDataRow(tableBuilder, cells);
+            }
+
+            TableDrawer tableDrawer = TableDrawer.builder()
+                    .contentStream(contentStream)
+                    .startX(tableLeftMargin + (length % 2) * (tableWidth + tableBetweenPad))
+                    .startY(pageBox.getHeight() - tableTopMargin - (length / 2) * tableHeight)
+                    .table(tableBuilder.build())
+                    .build();
+
+            tableDrawer.draw();
+        }
 
         contentStream.close();
     }
@@ -382,187 +767,70 @@ public class PDFWriter {
 
     /**
      * Creates a table with user names filled in
+     * @param names the first names of the users in the table
      * @return initail table
      */
-    private Table.TableBuilder buildTable() {
+    private Table.TableBuilder buildTable(List<String> names) {
+
+        float[] widths = new float[names.size()];
+        Arrays.fill(widths, TABLE_COLUMN_WIDTH);
 
         Table.TableBuilder tableBuilder = Table.builder()
-                .addColumnsOfWidth(96, 96, 96)
+                .addColumnsOfWidth(widths)
                 .fontSize(8)
                 .font(HELVETICA_BOLD);
 
-        tableBuilder.addRow(Row.builder()
-                .add(TextCell.builder().text(users[0]).borderWidth(1).horizontalAlignment(CENTER).build())
-                .add(TextCell.builder().text(users[1]).borderWidth(1).horizontalAlignment(CENTER).build())
-                .add(TextCell.builder().text(users[2]).borderWidth(1).horizontalAlignment(CENTER).build())
-                .build());
+        Row.RowBuilder header = Row.builder();
 
-        return tableBuilder;
-    }
+        for(String name : names) {
+            header.add(TextCell.builder().text(deAccent(name)).borderWidth(1).horizontalAlignment(CENTER).build());
+        }
 
-    /**
-     * Get the names of users who's data should be printed
-     */
-    private void getUsers() {
+        tableBuilder.addRow(header.build());
 
-        users = new String[statistics.getUserStats().size()];
-        for(int index = 0; index < statistics.getUserStats().size(); index++) {
-            users[index] = statistics.getUserStats().keySet().toArray()[index].toString().split(" ")[0];
-        }
+        return tableBuilder;
     }
 
     /**
      * Adds a single data row to the table
      * @param tableBuilder the table to be filled
-     * @param name1 first user's data
-     * @param name2 second user's data
-     * @param name3 third user's data
-     */
-    private void addDataRow(Table.TableBuilder tableBuilder,
-                                          String name1, String name2, String name3) {
-
-        tableBuilder.addRow(Row.builder()
-                .add(TextCell.builder().text(name1).horizontalAlignment(CENTER).borderWidth(1).build())
-                .add(TextCell.builder().text(name2).horizontalAlignment(CENTER).borderWidth(1).build())
-                .add(TextCell.builder().text(name3).horizontalAlignment(CENTER).borderWidth(1).build())
-                .build());
-    }
-
-    /**
-     * Constructs the table for most used four letter words
-     * @return complete table
-     */
-    private Table getTableOne() {
-
-        Table.TableBuilder tableBuilder = buildTable();
-
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsFour().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsFour().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsFour().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsFour().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsFour().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsFour().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
-        }
-
-        return tableBuilder.build();
-    }
-
-    /**
-     * Constructs the table for most used five letter words
-     * @return complete table
-     */
-    private Table getTableTwo() {
-
-        Table.TableBuilder tableBuilder = buildTable();
-
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsFive().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsFive().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsFive().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsFive().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsFive().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsFive().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
-        }
-
-        return tableBuilder.build();
-    }
-
-    /**
-     * Constructs the table for most used six letter words
-     * @return complete table
+     * @param cells each user's data
      */
-    private Table getTableThree() {
+    private void addDataRow(Table.TableBuilder tableBuilder, List<String> cells) {
 
-        Table.TableBuilder tableBuilder = buildTable();
+        Row.RowBuilder row = Row.builder();
 
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsSix().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsSix().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsSix().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsSix().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsSix().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsSix().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
+        for(String cell : cells) {
+            row.add(TextCell.builder().text(deAccent(cell)).horizontalAlignment(CENTER).borderWidth(1).build());
         }
 
-        return tableBuilder.build();
+        tableBuilder.addRow(row.build());
     }
 
     /**
-     * Constructs the table for most used seven letter words
-     * @return complete table
+     * Where a pdf is saved, opened only once the pdf is ready to be saved
      */
-    private Table getTableFour() {
-
-        Table.TableBuilder tableBuilder = buildTable();
-
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsSeven().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsSeven().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsSeven().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsSeven().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsSeven().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsSeven().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
-        }
-
-        return tableBuilder.build();
-    }
-
-    /**
-     * Constructs the table for most used eight letter words
-     * @return complete table
-     */
-    private Table getTableFive() {
-
-        Table.TableBuilder tableBuilder = buildTable();
-
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsEight().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsEight().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsEight().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsEight().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsEight().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsEight().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
-        }
-
-        return tableBuilder.build();
+    private interface Output {
+
+        /**
+         * Saves a pdf
+         * @param document the pdf to be saved
+         * @throws IOException if the pdf couldn't be saved
+         */
+        void save(PDDocument document) throws IOException;
     }
 
     /**
-     * Constructs the table for most used nine letter words
-     * @return complete table
+     * A prepared chart, either its raster image or the single page pdf it was drawn to
      */
-    private Table getTableSix() {
+    private static class RenderedChart {
 
-        Table.TableBuilder tableBuilder = buildTable();
+        private final BufferedImage image;
+        private final byte[] page;
 
-        for(int row = 1; row <= 5; row++) {
-
-            String firstName = statistics.getUserStats().get("Name1 Surname1").getCommonWordsNine().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name1 Surname1").getCommonWordsNine().get(row - 1).getValue();
-            String secondName = statistics.getUserStats().get("Name2 Surname2").getCommonWordsNine().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name2 Surname2").getCommonWordsNine().get(row - 1).getValue();
-            String thirdName = statistics.getUserStats().get("Name3 Surname3").getCommonWordsNine().get(row - 1).getKey() +
-                    " - " + statistics.getUserStats().get("Name3 Surname3").getCommonWordsNine().get(row - 1).getValue();
-
-            addDataRow(tableBuilder, firstName, secondName, thirdName);
+        private RenderedChart(BufferedImage image, byte[] page) {
+            this.image = image;
+            this.page = page;
         }
-
-        return tableBuilder.build();
     }
 }
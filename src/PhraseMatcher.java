@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable prefix automaton that finds which of a set of phrases a text starts with.
+ * Matching walks the text once instead of testing every phrase with startsWith
+ * @param <T> the type of the value attached to each phrase
+ */
+public class PhraseMatcher<T> {
+
+    private final Node root;
+    private final List<T> values;
+
+    /**
+     * Builds the automaton for the given phrases
+     * @param phrases the phrases mapped to their values, earlier phrases take priority
+     */
+    public PhraseMatcher(List<Map.Entry<String, T>> phrases) {
+
+        BuildNode buildRoot = new BuildNode();
+        values = new ArrayList<>(phrases.size());
+
+        for(Map.Entry<String, T> phrase : phrases) {
+
+            BuildNode node = buildRoot;
+
+            for(char ch : phrase.getKey().toCharArray()) {
+                node = node.children.computeIfAbsent(ch, key -> new BuildNode());
+            }
+
+            node.priorities.add(values.size());
+            values.add(phrase.getValue());
+        }
+
+        root = buildRoot.freeze();
+    }
+
+    /**
+     * Finds the value of the highest priority phrase the text starts with
+     * @param text the text to be matched
+     * @return the value of the phrase or null if the text starts with none of the phrases
+     */
+    public T firstMatch(String text) {
+
+        int best = Integer.MAX_VALUE;
+        Node node = root;
+
+        for(int index = 0; node != null; index++) {
+
+            if(node.priorities.length > 0 && node.priorities[0] < best) {
+                best = node.priorities[0];
+            }
+
+            if(index == text.length()) {
+                break;
+            }
+
+            node = node.child(text.charAt(index));
+        }
+
+        return best == Integer.MAX_VALUE ? null : values.get(best);
+    }
+
+    /**
+     * Finds the values of all phrases the text starts with
+     * @param text the text to be matched
+     * @return the values of the phrases in order of priority
+     */
+    public List<T> allMatches(String text) {
+
+        List<Integer> priorities = new ArrayList<>();
+        Node node = root;
+
+        for(int index = 0; node != null; index++) {
+
+            for(int priority : node.priorities) {
+                priorities.add(priority);
+            }
+
+            if(index == text.length()) {
+                break;
+            }
+
+            node = node.child(text.charAt(index));
+        }
+
+        priorities.sort(null);
+        List<T> matches = new ArrayList<>(priorities.size());
+
+        for(int priority : priorities) {
+            matches.add(values.get(priority));
+        }
+
+        return matches;
+    }
+
+    /**
+     * State of the automaton with its transitions sorted by character
+     */
+    private static class Node {
+
+        private final char[] keys;
+        private final Node[] children;
+
+        // Priorities of the phrases ending in this state in ascending order, empty if none does
+        private final int[] priorities;
+
+        private Node(char[] keys, Node[] children, int[] priorities) {
+            this.keys = keys;
+            this.children = children;
+            this.priorities = priorities;
+        }
+
+        private Node child(char ch) {
+
+            int low = 0;
+            int high = keys.length - 1;
+
+            while(low <= high) {
+
+                int middle = (low + high) >>> 1;
+
+                if(keys[middle] < ch) {
+                    low = middle + 1;
+                } else if(keys[middle] > ch) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Mutable state used while the automaton is being built
+     */
+    private static class BuildNode {
+
+        private final TreeMap<Character, BuildNode> children = new TreeMap<>();
+        private final List<Integer> priorities = new ArrayList<>();
+
+        private Node freeze() {
+
+            char[] keys = new char[children.size()];
+            Node[] frozen = new Node[children.size()];
+            int index = 0;
+
+            for(Map.Entry<Character, BuildNode> child : children.entrySet()) {
+
+                keys[index] = child.getKey();
+                frozen[index] = child.getValue().freeze();
+                index++;
+            }
+
+            int[] frozenPriorities = new int[priorities.size()];
+
+            for(int pos = 0; pos < frozenPriorities.length; pos++) {
+                frozenPriorities[pos] = priorities.get(pos);
+            }
+
+            return new Node(keys, frozen, frozenPriorities);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import javafx.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Everything reports written in one batch share: the pool their charts are rendered on, the chart style
+ * and the chart cache. These are set up once, so each report only adds the work its own data needs
+ */
+public class ReportSession implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final ChartStyle style;
+
+    // Whether the pool was created by the session, and so is shut down with it
+    private final boolean ownsExecutor;
+
+    private ChartCache chartCache = ChartCache.getDefault();
+    private boolean vectorCharts = true;
+    private long memoryBudget = -1;
+    private File scratchDirectory;
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Creates a session with the default chart style and a pool with a thread for each processor
+     */
+    public ReportSession() {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), ChartStyle.getDefault(), true);
+    }
+
+    /**
+     * Creates a session rendering charts on the given executor, which is left running when the session is closed
+     * @param executor the executor charts are rendered on
+     * @param style the fonts and templates of the charts
+     */
+    public ReportSession(ExecutorService executor, ChartStyle style) {
+        this(executor, style, false);
+    }
+
+    private ReportSession(ExecutorService executor, ChartStyle style, boolean ownsExecutor) {
+        this.executor = executor;
+        this.style = style;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates a pdf writer for one chat that uses the session's resources and settings
+     * @param statistics the stats to be printed
+     * @return the pdf writer
+     */
+    public PDFWriter createWriter(GroupStatistics statistics) {
+
+        PDFWriter writer = new PDFWriter(statistics, executor, style);
+        writer.setChartCache(chartCache);
+        writer.setVectorCharts(vectorCharts);
+        writer.setMemoryBudget(memoryBudget, scratchDirectory);
+        writer.setMetrics(metrics);
+
+        return writer;
+    }
+
+    /**
+     * Writes a pdf file for each chat. A report that fails is skipped so that the rest are still written
+     * @param reports the stats of each chat together with the file its report is written to
+     * @return the number of reports written
+     */
+    public int writeReports(List<Pair<GroupStatistics, File>> reports) {
+
+        int written = 0;
+
+        for(Pair<GroupStatistics, File> report : reports) {
+
+            try {
+                createWriter(report.getKey()).writeToPDF(report.getValue());
+                written++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Shuts down the pool if the session created it
+     */
+    @Override
+    public void close() {
+
+        if(ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the cache renders of charts are kept in between reports
+     * @param chartCache the cache, null to render every chart
+     */
+    public void setChartCache(ChartCache chartCache) {
+        this.chartCache = chartCache;
+    }
+
+    /**
+     * Sets whether charts are drawn as vector graphics or embedded as raster images
+     * @param vectorCharts true to draw charts as vector graphics
+     */
+    public void setVectorCharts(boolean vectorCharts) {
+        this.vectorCharts = vectorCharts;
+    }
+
+    /**
+     * Limits how much of each document is kept in memory while it's written
+     * @param memoryBudget the number of bytes kept in memory, negative to keep the whole document in memory
+     * @param scratchDirectory where scratch files are created, null for the system's temporary directory
+     */
+    public void setMemoryBudget(long memoryBudget, File scratchDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /**
+     * Sets the registry the stages of every report are recorded in
+     * @param metrics the registry
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+}
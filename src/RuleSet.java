@@ -0,0 +1,418 @@
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable set of rules for recognising automatically generated messages. Rules are loaded
+ * and compiled once per process and can be shared between threads
+ */
+public final class RuleSet {
+
+    // System properties that override the default rule locations
+    public static final String KEYWORDS_PROPERTY = "msgbot.keywords";
+    public static final String ALIASES_PROPERTY = "msgbot.aliases";
+    public static final String CACHE_PROPERTY = "msgbot.rulesCache";
+
+    private static final String DEFAULT_KEYWORDS = "C:\\keywords.txt";
+    private static final String DEFAULT_ALIASES = "C:\\nameAliases.json";
+
+    // Identifies the binary cache format
+    private static final int CACHE_VERSION = 2;
+
+    // Keywords that determine whether a message is classified as a nameChangeMessage
+    public static final List<String> NAME_CHANGE_KEYWORDS = Collections.unmodifiableList(Arrays.asList(
+            "pakeitė savo pravardę į", "pakeitė tavo vartotojo vardą į", "pakeitė Mykolas Lekavičius vardą į",
+            "pakeitė Dominykas Simpukas vardą į", "pakeitėte vartotojo vardą iš Dominykas Simpukas į",
+            "pakeitėte vartotojo vardą iš Mykolas Lekavičius į", "set your nickname to"
+    ));
+
+    // Keywords that determine whether a message is classified as a groupChangeMessage
+    public static final List<String> GROUP_CHANGE_KEYWORDS = Collections.unmodifiableList(Arrays.asList(
+            "pavadino grupę", "pavadinote grupę"
+    ));
+
+    // Keywords that determine whether a message is classified as a photoChangeMessage
+    public static final List<String> PHOTO_CHANGE_KEYWORDS = Collections.unmodifiableList(Arrays.asList(
+            "pakeitė grupės nuotrauką.", "pakeitėte grupės nuotrauką"
+    ));
+
+    // Keywords that determine whether a message is classified as a themeChangeMessage
+    public static final List<String> THEME_CHANGE_KEYWORDS = Collections.unmodifiableList(Arrays.asList(
+            "changed the chat theme to"
+    ));
+
+    // Rule sets already loaded by this process, keyed by their locations
+    private static final Map<String, RuleSet> loaded = new ConcurrentHashMap<>();
+
+    // The phrases that appear in automatically generated messages
+    private final List<String> filterKeywords;
+
+    // Other names for a user
+    private final Map<String, List<String>> nameAliases;
+
+    private final PhraseMatcher<Match> infoMatcher;
+    private final PhraseMatcher<Match> aliasMatcher;
+    private final PhraseMatcher<Match> nameChangeMatcher;
+    private final PhraseMatcher<Match> groupChangeMatcher;
+    private final PhraseMatcher<Match> photoChangeMatcher;
+    private final PhraseMatcher<Match> themeChangeMatcher;
+
+    /**
+     * Compiles the rules
+     * @param filterKeywords the phrases that appear in automatically generated messages
+     * @param nameAliases the other names of each user
+     */
+    public RuleSet(List<String> filterKeywords, Map<String, List<String>> nameAliases) {
+
+        this.filterKeywords = Collections.unmodifiableList(new ArrayList<>(filterKeywords));
+
+        Map<String, List<String>> aliases = new LinkedHashMap<>();
+
+        for(Map.Entry<String, List<String>> entry : nameAliases.entrySet()) {
+            aliases.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+
+        this.nameAliases = Collections.unmodifiableMap(aliases);
+
+        infoMatcher = compile(this.filterKeywords);
+        nameChangeMatcher = compile(NAME_CHANGE_KEYWORDS);
+        groupChangeMatcher = compile(GROUP_CHANGE_KEYWORDS);
+        photoChangeMatcher = compile(PHOTO_CHANGE_KEYWORDS);
+        themeChangeMatcher = compile(THEME_CHANGE_KEYWORDS);
+
+        List<Map.Entry<String, Match>> phrases = new ArrayList<>();
+
+        for(String keyword : this.filterKeywords) {
+
+            for(String user : this.nameAliases.keySet()) {
+
+                for(String alias : this.nameAliases.get(user)) {
+                    phrases.add(new AbstractMap.SimpleImmutableEntry<>(alias + " " + keyword,
+                            new Match(user, alias, keyword)));
+                }
+            }
+        }
+
+        aliasMatcher = new PhraseMatcher<>(phrases);
+    }
+
+    /**
+     * Returns the rules at the locations configured by system properties, loading them on first use
+     * @return the rule set
+     */
+    public static RuleSet getDefault() {
+
+        String cache = System.getProperty(CACHE_PROPERTY);
+
+        return get(new File(System.getProperty(KEYWORDS_PROPERTY, DEFAULT_KEYWORDS)),
+                new File(System.getProperty(ALIASES_PROPERTY, DEFAULT_ALIASES)),
+                cache == null ? null : new File(cache));
+    }
+
+    /**
+     * Returns the rules at the given locations, loading them only if this process hasn't yet
+     * @param keywordsFile text file with one filter keyword per line
+     * @param aliasesFile JSON file with the aliases of each user
+     * @param cacheFile binary cache of the rules, null if the rules shouldn't be cached
+     * @return the rule set
+     */
+    public static RuleSet get(File keywordsFile, File aliasesFile, File cacheFile) {
+
+        String key = keywordsFile.getAbsolutePath() + File.pathSeparator + aliasesFile.getAbsolutePath();
+        RuleSet rules = loaded.get(key);
+
+        return rules != null ? rules : load(key, keywordsFile, aliasesFile, cacheFile);
+    }
+
+    /**
+     * Loads the rules from the binary cache if it's up to date, from the rule files otherwise. If a file can't be
+     * read the rules go without it, but are neither kept nor cached so the files are read again the next time
+     * @param key the locations the rules are kept under
+     * @param keywordsFile text file with one filter keyword per line
+     * @param aliasesFile JSON file with the aliases of each user
+     * @param cacheFile binary cache of the rules, null if the rules shouldn't be cached
+     * @return the rule set
+     */
+    private static synchronized RuleSet load(String key, File keywordsFile, File aliasesFile, File cacheFile) {
+
+        // Another thread may have loaded the rules while this one waited
+        RuleSet rules = loaded.get(key);
+
+        if(rules != null) {
+            return rules;
+        }
+
+        // Both the time each file was modified and its length, so an edit within the same second is noticed
+        long[] stamp = {keywordsFile.lastModified(), keywordsFile.length(),
+                aliasesFile.lastModified(), aliasesFile.length()};
+
+        if(cacheFile != null && cacheFile.isFile()) {
+            rules = readCache(cacheFile, stamp);
+        }
+
+        if(rules == null) {
+
+            List<String> keywords = readKeywords(keywordsFile);
+            Map<String, List<String>> nameAliases = readAliases(aliasesFile);
+
+            if(keywords == null || nameAliases == null) {
+                return new RuleSet(keywords == null ? Collections.emptyList() : keywords,
+                        nameAliases == null ? Collections.emptyMap() : nameAliases);
+            }
+
+            rules = new RuleSet(keywords, nameAliases);
+
+            if(cacheFile != null) {
+                rules.writeCache(cacheFile, stamp);
+            }
+        }
+
+        loaded.put(key, rules);
+
+        return rules;
+    }
+
+    /**
+     * Loads filter keywords from file
+     * @param file text file with one keyword per line
+     * @return the keywords or null if the file couldn't be read
+     */
+    private static List<String> readKeywords(File file) {
+
+        List<String> keywords = new ArrayList<>();
+        String line;
+
+        try(BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+
+            while((line = input.readLine()) != null) {
+                keywords.add(line);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        return keywords;
+    }
+
+    /**
+     * Loads name aliases from file
+     * @param file JSON file with the aliases of each user
+     * @return the aliases of each user or null if the file couldn't be read
+     */
+    private static Map<String, List<String>> readAliases(File file) {
+
+        Map<String, List<String>> nameAliases = new LinkedHashMap<>();
+        JSONParser parser = new JSONParser();
+
+        try(Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+
+            JSONObject data = (JSONObject) parser.parse(reader);
+            JSONArray users = (JSONArray) data.get("users");
+
+            for(Object userObj : users) {
+
+                JSONObject user = (JSONObject) userObj;
+                List<String> aliases = new ArrayList<>();
+                nameAliases.put((String) user.get("name"), aliases);
+
+                for(Object aliasObj : (JSONArray) user.get("aliases")) {
+
+                    JSONObject alias = (JSONObject) aliasObj;
+                    aliases.add((String) alias.get("alias"));
+                }
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        return nameAliases;
+    }
+
+    /**
+     * Reads the rules from the binary cache
+     * @param file the cache file
+     * @param stamp identifies the versions of the rule files the cache must be built from
+     * @return the rule set or null if the cache is out of date or unreadable
+     */
+    private static RuleSet readCache(File file, long[] stamp) {
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+            if(in.readInt() != CACHE_VERSION) {
+                return null;
+            }
+
+            for(long field : stamp) {
+
+                if(in.readLong() != field) {
+                    return null;
+                }
+            }
+
+            List<String> keywords = new ArrayList<>();
+
+            for(int count = in.readInt(); count > 0; count--) {
+                keywords.add(in.readUTF());
+            }
+
+            Map<String, List<String>> nameAliases = new LinkedHashMap<>();
+
+            for(int users = in.readInt(); users > 0; users--) {
+
+                List<String> aliases = new ArrayList<>();
+                nameAliases.put(in.readUTF(), aliases);
+
+                for(int count = in.readInt(); count > 0; count--) {
+                    aliases.add(in.readUTF());
+                }
+            }
+
+            return new RuleSet(keywords, nameAliases);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes the rules to the binary cache
+     * @param file the cache file
+     * @param stamp identifies the versions of the rule files the rules were built from
+     */
+    private void writeCache(File file, long[] stamp) {
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            out.writeInt(CACHE_VERSION);
+
+            for(long field : stamp) {
+                out.writeLong(field);
+            }
+
+            out.writeInt(filterKeywords.size());
+
+            for(String keyword : filterKeywords) {
+                out.writeUTF(keyword);
+            }
+
+            out.writeInt(nameAliases.size());
+
+            for(Map.Entry<String, List<String>> entry : nameAliases.entrySet()) {
+
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+
+                for(String alias : entry.getValue()) {
+                    out.writeUTF(alias);
+                }
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds an automaton matching messages that start with a user's name followed by a keyword
+     * @param keywords the keywords following the name
+     * @return the automaton
+     */
+    private PhraseMatcher<Match> compile(List<String> keywords) {
+
+        List<Map.Entry<String, Match>> phrases = new ArrayList<>();
+
+        for(String keyword : keywords) {
+
+            for(String user : nameAliases.keySet()) {
+                phrases.add(new AbstractMap.SimpleImmutableEntry<>(user + " " + keyword, new Match(user, user, keyword)));
+            }
+        }
+
+        return new PhraseMatcher<>(phrases);
+    }
+
+    /**
+     * Tests if a message is automatically generated
+     * @param content the content of the message
+     * @return true if the content starts with a user's name followed by a filter keyword
+     */
+    public boolean isInfoMessage(String content) {
+        return infoMatcher.firstMatch(content) != null;
+    }
+
+    /**
+     * Finds the aliases an automatically generated message may start with in place of the actual name
+     * @param content the content of the message
+     * @return the matching aliases in order of priority
+     */
+    public List<Match> findAliases(String content) {
+        return aliasMatcher.allMatches(content);
+    }
+
+    /*
+     * Getters
+     */
+    public List<String> getFilterKeywords() {
+        return filterKeywords;
+    }
+
+    public Map<String, List<String>> getNameAliases() {
+        return nameAliases;
+    }
+
+    public PhraseMatcher<Match> getNameChangeMatcher() {
+        return nameChangeMatcher;
+    }
+
+    public PhraseMatcher<Match> getGroupChangeMatcher() {
+        return groupChangeMatcher;
+    }
+
+    public PhraseMatcher<Match> getPhotoChangeMatcher() {
+        return photoChangeMatcher;
+    }
+
+    public PhraseMatcher<Match> getThemeChangeMatcher() {
+        return themeChangeMatcher;
+    }
+
+    /**
+     * A phrase found at the start of a message
+     */
+    public static final class Match {
+
+        private final String user;
+        private final String name;
+        private final String keyword;
+
+        private Match(String user, String name, String keyword) {
+            this.user = user;
+            this.name = name;
+            this.keyword = keyword;
+        }
+
+        /*
+         * Getters
+         */
+        public String getUser() {
+            return user;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getKeyword() {
+            return keyword;
+        }
+    }
+}
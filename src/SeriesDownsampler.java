@@ -0,0 +1,74 @@
+import javafx.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces long series to a bounded number of points before they are charted.
+ * Uses min/max per bucket, so every spike and every quiet day is still visible
+ * after downsampling
+ */
+public class SeriesDownsampler {
+
+    private SeriesDownsampler() {
+    }
+
+    /**
+     * Downsamples a series by keeping the smallest and largest point of each bucket.
+     * The first and last points are always kept so the series spans the same range
+     * @param series the points to be downsampled, in domain order
+     * @param maxPoints the maximum number of points to be returned
+     * @return the series itself if it already fits, otherwise the downsampled points in domain order
+     */
+    public static <K> List<Pair<K, Integer>> minMax(List<Pair<K, Integer>> series, int maxPoints) {
+
+        if(maxPoints < 4) {
+            throw new IllegalArgumentException("At least 4 points are needed, got " + maxPoints);
+        }
+
+        int size = series.size();
+
+        if(size <= maxPoints) {
+            return series;
+        }
+
+        // Interior points are split into buckets, each contributing up to two points
+        int buckets = (maxPoints - 2) / 2;
+        int interior = size - 2;
+        List<Pair<K, Integer>> sampled = new ArrayList<>(buckets * 2 + 2);
+
+        sampled.add(series.get(0));
+
+        for(int bucket = 0; bucket < buckets; bucket++) {
+
+            int start = 1 + (int) ((long) bucket * interior / buckets);
+            int end = 1 + (int) ((long) (bucket + 1) * interior / buckets);
+
+            int minIndex = start;
+            int maxIndex = start;
+
+            for(int i = start + 1; i < end; i++) {
+
+                int value = series.get(i).getValue();
+
+                if(value < series.get(minIndex).getValue()) {
+                    minIndex = i;
+                }
+                else if(value > series.get(maxIndex).getValue()) {
+                    maxIndex = i;
+                }
+            }
+
+            // Keep the two points in domain order
+            sampled.add(series.get(Math.min(minIndex, maxIndex)));
+
+            if(minIndex != maxIndex) {
+                sampled.add(series.get(Math.max(minIndex, maxIndex)));
+            }
+        }
+
+        sampled.add(series.get(size - 1));
+
+        return sampled;
+    }
+}
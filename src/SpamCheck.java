@@ -0,0 +1,14 @@
+/**
+ * A single test that can classify a message as spam
+ */
+@FunctionalInterface
+public interface SpamCheck {
+
+    /**
+     * Tests if a message is considered as spam
+     * @param message the message to be tested
+     * @param sample past and future messages
+     * @return true if message is spam, false otherwise
+     */
+    boolean isSpam(String message, String[] sample);
+}
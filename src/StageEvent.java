@@ -0,0 +1,96 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a stage of the pipeline, spanning the same time as the stage's metrics span.
+ * Each kind of stage has an event type of its own, so they're listed separately in Mission Control.
+ * Only loaded on JVMs with a flight recorder. Metrics picks the type, since the flight recorder can't instrument
+ * an event class that loads its own subclasses
+ */
+public abstract class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Subject")
+    @Description("The file or chart the stage worked on")
+    String subject;
+
+    @Label("Items")
+    long items;
+
+    @Label("Rejected Items")
+    long rejected;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    /**
+     * Ends the event and commits it if it's being recorded
+     * @param subject the file or chart the stage worked on, may be null
+     * @param items the number of items processed
+     * @param rejected the number of items rejected
+     * @param bytesRead the number of bytes read
+     * @param allocatedBytes the number of bytes allocated
+     */
+    void finish(String subject, long items, long rejected, long bytesRead, long allocatedBytes) {
+
+        end();
+
+        if(shouldCommit()) {
+
+            this.subject = subject;
+            this.items = items;
+            this.rejected = rejected;
+            this.bytesRead = bytesRead;
+            this.allocatedBytes = allocatedBytes;
+
+            commit();
+        }
+    }
+
+    @Name("msgbot.Stage")
+    @Label("Pipeline Stage")
+    @Category("MsgBot")
+    public static class OtherStage extends StageEvent {
+    }
+
+    @Name("msgbot.FileRepaired")
+    @Label("File Repaired")
+    @Category("MsgBot")
+    public static class FileRepaired extends StageEvent {
+    }
+
+    @Name("msgbot.FileParsed")
+    @Label("File Parsed")
+    @Category("MsgBot")
+    public static class FileParsed extends StageEvent {
+    }
+
+    @Name("msgbot.FilterStage")
+    @Label("Filter Stage")
+    @Category("MsgBot")
+    public static class FilterStage extends StageEvent {
+    }
+
+    @Name("msgbot.Aggregation")
+    @Label("Aggregation")
+    @Category("MsgBot")
+    public static class Aggregation extends StageEvent {
+    }
+
+    @Name("msgbot.ChartRendered")
+    @Label("Chart Rendered")
+    @Category("MsgBot")
+    public static class ChartRendered extends StageEvent {
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the time spent in a processing stage, how many items it processed and rejected,
+ * and what it read and allocated
+ */
+public class StageStatistics {
+
+    private final String name;
+
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    // Largest heap in use at the end of the stage
+    private final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates empty statistics for a stage
+     * @param name the name of the stage
+     */
+    public StageStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a single item passing through the stage
+     * @param elapsedNanos the time spent on the item
+     * @param isRejected whether the item was rejected
+     */
+    public void record(long elapsedNanos, boolean isRejected) {
+
+        nanos.add(elapsedNanos);
+        processed.increment();
+
+        if(isRejected) {
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Records a batch of items passing through the stage
+     * @param elapsedNanos the time spent on the batch
+     * @param processedItems the number of items in the batch
+     * @param rejectedItems the number of items rejected from the batch
+     */
+    public void record(long elapsedNanos, long processedItems, long rejectedItems) {
+
+        nanos.add(elapsedNanos);
+        processed.add(processedItems);
+        rejected.add(rejectedItems);
+    }
+
+    /**
+     * Records a batch of items passing through the stage together with the resources it used
+     * @param elapsedNanos the time spent on the batch
+     * @param cpuNanos the cpu time of the thread that processed the batch
+     * @param allocatedBytes the bytes allocated by the thread that processed the batch
+     * @param processedItems the number of items in the batch
+     * @param rejectedItems the number of items rejected from the batch
+     * @param heapBytes the heap in use once the batch was processed
+     */
+    public void record(long elapsedNanos, long cpuNanos, long allocatedBytes, long processedItems, long rejectedItems,
+                       long heapBytes) {
+
+        record(elapsedNanos, processedItems, rejectedItems);
+
+        this.cpuNanos.add(cpuNanos);
+        this.allocatedBytes.add(allocatedBytes);
+        peakHeapBytes.accumulate(heapBytes);
+    }
+
+    /**
+     * Records bytes read by the stage
+     * @param bytes the number of bytes read
+     */
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Calculates the average time spent on a single item
+     * @return average time in nanoseconds, 0 if nothing was processed
+     */
+    public double getAverageNanos() {
+
+        long items = processed.sum();
+        return items == 0 ? 0 : (double) nanos.sum() / items;
+    }
+
+    /**
+     * Calculates the share of processed items that were rejected
+     * @return selectivity between 0 and 1, 0 if nothing was processed
+     */
+    public double getSelectivity() {
+
+        long items = processed.sum();
+        return items == 0 ? 0 : (double) rejected.sum() / items;
+    }
+
+    /*
+     * Getters
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + getProcessed() + " processed, " + getRejected() + " rejected, " +
+                getNanos() / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers strings that repeat across messages, such as senders and reactions, so each can be stored as its index.
+ * Strings are looked up without locking, so messages can be read on any thread while others are added
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+
+    // Replaced by a larger copy when full, entries up to size are set
+    private volatile String[] entries = new String[64];
+    private int size;
+
+    /**
+     * Returns the index of a string, adding it if it's not in the dictionary
+     * @param string the string, may be null
+     * @return the index of the string, -1 for null
+     */
+    public int indexOf(String string) {
+
+        if(string == null) {
+            return -1;
+        }
+
+        Integer index = indices.get(string);
+
+        if(index != null) {
+            return index;
+        }
+
+        synchronized(this) {
+
+            index = indices.get(string);
+
+            if(index == null) {
+
+                String[] newEntries = size < entries.length ? entries : Arrays.copyOf(entries, 2 * size);
+                newEntries[size] = string;
+                entries = newEntries;
+
+                index = size++;
+                indices.put(string, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Returns the string at an index
+     * @param index the index, -1 for null
+     * @return the string
+     */
+    public String get(int index) {
+        return index < 0 ? null : entries[index];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
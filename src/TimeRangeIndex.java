@@ -0,0 +1,430 @@
+import javafx.util.Pair;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Answers statistics of any range of days without going over the messages again. Each user's daily counts are
+ * kept as prefix sums, so a count over a range is the difference of two of them. Words are summarised per user
+ * and month in bounded sketches of their most frequent words, merged when the top words of a range are asked for
+ */
+public class TimeRangeIndex {
+
+    /**
+     * Daily counts kept for each user
+     */
+    public enum Metric {
+        MESSAGES, WORDS, CHARS, SPAM_MESSAGES, REACTIONS_SENT, REACTIONS_RECEIVED
+    }
+
+    private static final int METRICS = Metric.values().length;
+
+    // Number of words each sketch keeps once it's built, it holds up to twice as many while being built
+    private static final int SKETCH_SIZE = 128;
+
+    // Days and months are those of the default time zone, like the rest of the statistics
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final List<String> userNames;
+    private final Map<String, Integer> userIndices = new HashMap<>();
+
+    private LocalDate firstDay;
+    private YearMonth firstMonth;
+
+    // Counts of each metric before each day, for each user followed by the whole group
+    private long[][] prefixSums;
+
+    // Sketch of each user's words in each month, null if the user wrote nothing that month
+    private WordSketch[][] sketches;
+
+    /**
+     * Indexes the messages of a chat
+     * @param userNames the users whose statistics are indexed, messages of anyone else are left out
+     * @param messages the messages that aren't spam or informative
+     * @param spamMessages the messages classified as spam
+     */
+    public TimeRangeIndex(List<String> userNames, List<Message> messages, List<Message> spamMessages) {
+
+        this.userNames = new ArrayList<>(userNames);
+
+        for(int user = 0; user < userNames.size(); user++) {
+            userIndices.put(userNames.get(user), user);
+        }
+
+        // Counts of each day and sketches of each month, by epoch day and by months since year 0
+        Map<Long, long[]> dailyCounts = new HashMap<>();
+        Map<Integer, WordSketch[]> monthlySketches = new HashMap<>();
+
+        for(Message message : messages) {
+
+            Integer user = userIndices.get(message.getSender());
+
+            if(user == null) {
+                continue;
+            }
+
+            LocalDate day = toDay(message.getTimestamp());
+            long[] counts = dailyCounts.computeIfAbsent(day.toEpochDay(), key -> new long[userNames.size() * METRICS]);
+
+            counts[user * METRICS + Metric.MESSAGES.ordinal()]++;
+            counts[user * METRICS + Metric.WORDS.ordinal()] += message.countWords();
+            counts[user * METRICS + Metric.CHARS.ordinal()] += message.countChars();
+            counts[user * METRICS + Metric.REACTIONS_RECEIVED.ordinal()] += message.getReactions().size();
+
+            for(MessageFormat.Reaction reaction : message.getReactions()) {
+
+                Integer reactionSender = userIndices.get(reaction.getSender());
+
+                if(reactionSender != null) {
+                    counts[reactionSender * METRICS + Metric.REACTIONS_SENT.ordinal()]++;
+                }
+            }
+
+            WordSketch[] monthSketches = monthlySketches.computeIfAbsent(toMonthIndex(YearMonth.from(day)),
+                    key -> new WordSketch[userNames.size()]);
+
+            if(monthSketches[user] == null) {
+                monthSketches[user] = new WordSketch();
+            }
+
+            for(String word : message.getContent().toLowerCase().split("\\s+")) {
+
+                if(!word.isEmpty()) {
+                    monthSketches[user].add(word);
+                }
+            }
+        }
+
+        for(Message message : spamMessages) {
+
+            Integer user = userIndices.get(message.getSender());
+
+            if(user != null) {
+
+                long day = toDay(message.getTimestamp()).toEpochDay();
+                dailyCounts.computeIfAbsent(day, key -> new long[userNames.size() * METRICS])
+                        [user * METRICS + Metric.SPAM_MESSAGES.ordinal()]++;
+            }
+        }
+
+        computePrefixSums(dailyCounts);
+        collectSketches(monthlySketches);
+    }
+
+    /**
+     * Counts a metric over a range of days in O(1). Days outside of the chat count as zero
+     * @param user the user, null for the whole group
+     * @param metric the metric to be counted
+     * @param from the first day of the range, inclusive
+     * @param to the day after the range, exclusive
+     * @return the count
+     */
+    public long count(String user, Metric metric, LocalDate from, LocalDate to) {
+
+        long[] sums = prefixSums[row(user, metric)];
+        int days = sums.length - 1;
+
+        int start = clamp(firstDay == null ? 0 : from.toEpochDay() - firstDay.toEpochDay(), days);
+        int end = clamp(firstDay == null ? 0 : to.toEpochDay() - firstDay.toEpochDay(), days);
+
+        return start < end ? sums[end] - sums[start] : 0;
+    }
+
+    /**
+     * Finds the most frequent words over a range of months by merging their sketches. Every sketch adds what it
+     * may have dropped of a word on top of what it kept, so counts are never below the true count and above it
+     * by at most the total the merged sketches dropped
+     * @param user the user, null for the whole group
+     * @param from the first month of the range, inclusive
+     * @param to the month after the range, exclusive
+     * @param topN the number of words to find
+     * @return up to topN words and their estimated frequency, most frequent first
+     */
+    public List<Pair<String, Integer>> topWords(String user, YearMonth from, YearMonth to, int topN) {
+
+        int firstUser = user == null ? 0 : userIndex(user);
+        int lastUser = user == null ? userNames.size() - 1 : firstUser;
+
+        int start = clamp(firstMonth == null ? 0 : toMonthIndex(from) - toMonthIndex(firstMonth), sketches.length);
+        int end = clamp(firstMonth == null ? 0 : toMonthIndex(to) - toMonthIndex(firstMonth), sketches.length);
+
+        Map<String, Integer> merged = new HashMap<>();
+        int dropped = 0;
+
+        for(int month = start; month < end; month++) {
+
+            for(int index = firstUser; index <= lastUser; index++) {
+
+                WordSketch sketch = sketches[month][index];
+
+                if(sketch != null) {
+                    dropped += sketch.mergeInto(merged);
+                }
+            }
+        }
+
+        // A sketch may have dropped a word it doesn't hold as often as any word it holds
+        int unseen = dropped;
+        merged.replaceAll((word, count) -> count + unseen);
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+
+        List<Pair<String, Integer>> topWords = new ArrayList<>();
+
+        for(int index = 0; index < Math.min(topN, entries.size()); index++) {
+            topWords.add(new Pair<>(entries.get(index).getKey(), entries.get(index).getValue()));
+        }
+
+        return topWords;
+    }
+
+    /*
+     * Getters
+     */
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    public LocalDate getLastDay() {
+        return firstDay == null ? null : firstDay.plusDays(prefixSums[0].length - 2);
+    }
+
+    public List<String> getUserNames() {
+        return Collections.unmodifiableList(userNames);
+    }
+
+    /**
+     * Turns daily counts into prefix sums over every day from the first to the last one, group totals included
+     * @param dailyCounts the counts of each user on each day, by epoch day
+     */
+    private void computePrefixSums(Map<Long, long[]> dailyCounts) {
+
+        int rows = (userNames.size() + 1) * METRICS;
+        int days = 0;
+
+        if(!dailyCounts.isEmpty()) {
+
+            long first = Collections.min(dailyCounts.keySet());
+            firstDay = LocalDate.ofEpochDay(first);
+            days = (int) (Collections.max(dailyCounts.keySet()) - first) + 1;
+        }
+
+        prefixSums = new long[rows][days + 1];
+
+        for(int day = 0; day < days; day++) {
+
+            long[] counts = dailyCounts.get(firstDay.toEpochDay() + day);
+
+            for(int row = 0; row < rows; row++) {
+                prefixSums[row][day + 1] = prefixSums[row][day];
+            }
+
+            if(counts == null) {
+                continue;
+            }
+
+            for(int index = 0; index < counts.length; index++) {
+
+                int metric = index % METRICS;
+
+                prefixSums[index][day + 1] += counts[index];
+                prefixSums[userNames.size() * METRICS + metric][day + 1] += counts[index];
+            }
+        }
+    }
+
+    /**
+     * Orders the sketches by month from the first to the last one, shrinking each to its final size
+     * @param monthlySketches the sketches of each user in each month, by months since year 0
+     */
+    private void collectSketches(Map<Integer, WordSketch[]> monthlySketches) {
+
+        if(monthlySketches.isEmpty()) {
+            sketches = new WordSketch[0][];
+            return;
+        }
+
+        int first = Collections.min(monthlySketches.keySet());
+        firstMonth = YearMonth.of(Math.floorDiv(first, 12), Math.floorMod(first, 12) + 1);
+        sketches = new WordSketch[Collections.max(monthlySketches.keySet()) - first + 1][];
+
+        for(int month = 0; month < sketches.length; month++) {
+
+            WordSketch[] monthSketches = monthlySketches.get(first + month);
+            sketches[month] = monthSketches == null ? new WordSketch[userNames.size()] : monthSketches;
+
+            for(WordSketch sketch : sketches[month]) {
+
+                if(sketch != null) {
+                    sketch.seal();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the row of prefix sums of a user's metric
+     * @param user the user, null for the whole group
+     * @param metric the metric
+     * @return the row
+     */
+    private int row(String user, Metric metric) {
+        return (user == null ? userNames.size() : userIndex(user)) * METRICS + metric.ordinal();
+    }
+
+    /**
+     * Returns the position of a user
+     * @param user the user
+     * @return the position of the user in the user names
+     */
+    private int userIndex(String user) {
+
+        Integer index = userIndices.get(user);
+
+        if(index == null) {
+            throw new IllegalArgumentException("Unknown user: " + user);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the day a message was sent on
+     * @param timestamp the time the message was sent in milliseconds
+     * @return the day in the default time zone
+     */
+    private LocalDate toDay(long timestamp) {
+        return Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+    }
+
+    /**
+     * Numbers months consecutively
+     * @param month the month
+     * @return the number of months since the start of year 0
+     */
+    private static int toMonthIndex(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    /**
+     * Limits an offset to a range that starts at zero
+     * @param offset the offset
+     * @param length the end of the range, inclusive
+     * @return the offset within the range
+     */
+    private static int clamp(long offset, int length) {
+        return (int) Math.max(0, Math.min(offset, length));
+    }
+
+    /**
+     * Bounded summary of the most frequent words, kept in the manner of Misra and Gries. Once it holds twice
+     * its size in words, the count of the word just past its size is taken off every word and words left
+     * with none are dropped. Kept counts are lowered by at most the total taken off, and no word that isn't
+     * kept occurred more often than that total
+     */
+    private static class WordSketch {
+
+        private Map<String, int[]> counts = new HashMap<>();
+
+        // Total taken off each kept word
+        private int dropped;
+
+        // Words and counts once the sketch is sealed, most frequent first
+        private String[] words;
+        private int[] wordCounts;
+
+        /**
+         * Counts a word once
+         * @param word the word
+         */
+        private void add(String word) {
+
+            int[] count = counts.get(word);
+
+            if(count != null) {
+                count[0]++;
+                return;
+            }
+
+            counts.put(word, new int[] {1});
+
+            if(counts.size() >= 2 * SKETCH_SIZE) {
+                shrink();
+            }
+        }
+
+        /**
+         * Takes the count of the word just past the sketch's size off every word, dropping those left with none
+         */
+        private void shrink() {
+
+            if(counts.size() <= SKETCH_SIZE) {
+                return;
+            }
+
+            int[] sorted = new int[counts.size()];
+            int position = 0;
+
+            for(int[] count : counts.values()) {
+                sorted[position++] = count[0];
+            }
+
+            Arrays.sort(sorted);
+            int threshold = sorted[sorted.length - SKETCH_SIZE - 1];
+
+            Iterator<int[]> iterator = counts.values().iterator();
+
+            while(iterator.hasNext()) {
+
+                int[] count = iterator.next();
+                count[0] -= threshold;
+
+                if(count[0] <= 0) {
+                    iterator.remove();
+                }
+            }
+
+            dropped += threshold;
+        }
+
+        /**
+         * Shrinks the sketch to its size and stores it in arrays, after which no words can be added
+         */
+        private void seal() {
+
+            shrink();
+
+            List<Map.Entry<String, int[]>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort((first, second) -> Integer.compare(second.getValue()[0], first.getValue()[0]));
+
+            words = new String[entries.size()];
+            wordCounts = new int[entries.size()];
+
+            for(int index = 0; index < entries.size(); index++) {
+                words[index] = entries.get(index).getKey();
+                wordCounts[index] = entries.get(index).getValue()[0];
+            }
+
+            counts = null;
+        }
+
+        /**
+         * Adds the kept counts of the sketch's words to a map of counts
+         * @param merged the counts of each word
+         * @return the total taken off, by which any word's kept count may fall short
+         */
+        private int mergeInto(Map<String, Integer> merged) {
+
+            for(int index = 0; index < words.length; index++) {
+                merged.merge(words[index], wordCounts[index], Integer::sum);
+            }
+
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Column of timestamps stored in blocks. Each block keeps its first timestamp in a skip index and the differences
+ * between the timestamps that follow as zigzag encoded numbers, bit packed at the width the largest of them needs.
+ * Timestamps close together take a few bits each, and a time range is found by a binary search over the skip index
+ * followed by decoding at most two blocks
+ */
+public class TimestampColumn {
+
+    // Number of timestamps in a block
+    private static final int BLOCK_SHIFT = 7;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    // First timestamp of each sealed block
+    private long[] starts = new long[16];
+
+    // Bits taken by each difference of a sealed block, and the word its differences start at
+    private byte[] widths = new byte[16];
+    private int[] offsets = new int[16];
+
+    private long[] words = new long[64];
+    private int wordCount;
+    private int blocks;
+
+    // Timestamps of the block being filled, sealed once it's full
+    private final long[] pending = new long[BLOCK_SIZE];
+
+    private int size;
+    private long last;
+
+    // Whether every timestamp so far is at least, or at most, the one before it
+    private boolean ascending = true;
+    private boolean descending = true;
+
+    // Last block decoded by get, replaced as a whole so it can be read from any thread
+    private volatile DecodedBlock decoded;
+
+    /**
+     * Adds a timestamp to the end of the column
+     * @param timestamp the timestamp
+     */
+    public void add(long timestamp) {
+
+        if(size > 0) {
+            ascending &= timestamp >= last;
+            descending &= timestamp <= last;
+        }
+
+        last = timestamp;
+        pending[size & (BLOCK_SIZE - 1)] = timestamp;
+        size++;
+
+        if((size & (BLOCK_SIZE - 1)) == 0) {
+            seal();
+        }
+    }
+
+    /**
+     * Returns a timestamp, decoding its block unless it was the last one decoded
+     * @param index the position of the timestamp
+     * @return the timestamp
+     */
+    public long get(int index) {
+
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int block = index >>> BLOCK_SHIFT;
+
+        if(block == blocks) {
+            return pending[index & (BLOCK_SIZE - 1)];
+        }
+
+        DecodedBlock cached = decoded;
+
+        if(cached == null || cached.block != block) {
+
+            cached = new DecodedBlock(block, new long[BLOCK_SIZE]);
+            decodeBlock(block, cached.timestamps);
+            decoded = cached;
+        }
+
+        return cached.timestamps[index & (BLOCK_SIZE - 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getBlockCount() {
+        return size == 0 ? 0 : ((size - 1) >>> BLOCK_SHIFT) + 1;
+    }
+
+    /**
+     * Decodes the timestamps of a block
+     * @param block the index of the block
+     * @param timestamps where the timestamps are decoded to, at least as long as a block
+     * @return the number of timestamps in the block
+     */
+    public int decodeBlock(int block, long[] timestamps) {
+
+        if(block == blocks) {
+
+            int count = size & (BLOCK_SIZE - 1);
+            System.arraycopy(pending, 0, timestamps, 0, count);
+
+            return count;
+        }
+
+        timestamps[0] = starts[block];
+        unpack(words, offsets[block], BLOCK_SIZE, widths[block], timestamps, 0);
+
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * Finds the timestamps within a time range. The column has to be sorted, in either direction
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the position of the first timestamp in the range and the position after the last one
+     */
+    public int[] range(long from, long to) {
+
+        if(from >= to) {
+            return new int[] {0, 0};
+        }
+
+        if(ascending) {
+            return new int[] {countBefore(from), countBefore(to)};
+        }
+
+        if(descending) {
+            return new int[] {countBefore(to), countBefore(from)};
+        }
+
+        throw new IllegalStateException("Timestamps aren't sorted");
+    }
+
+    /**
+     * Counts the timestamps that come before a time in the column's order. In an ascending column those are
+     * the earlier timestamps, in a descending one the later or equal ones
+     * @param time the time
+     * @return the number of timestamps
+     */
+    private int countBefore(long time) {
+
+        // The last block whose first timestamp comes before the time, those after it can be skipped
+        int low = 0;
+        int high = getBlockCount() - 1;
+        int block = -1;
+
+        while(low <= high) {
+
+            int middle = (low + high) >>> 1;
+
+            if(comesBefore(blockStart(middle), time)) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        if(block < 0) {
+            return 0;
+        }
+
+        long[] timestamps = new long[BLOCK_SIZE];
+        int count = decodeBlock(block, timestamps);
+        int position = 0;
+
+        while(position < count && comesBefore(timestamps[position], time)) {
+            position++;
+        }
+
+        return (block << BLOCK_SHIFT) + position;
+    }
+
+    /**
+     * Tests if a timestamp comes before a time in the column's order
+     * @param timestamp the timestamp
+     * @param time the time
+     * @return true if the timestamp comes before the time
+     */
+    private boolean comesBefore(long timestamp, long time) {
+        return ascending ? timestamp < time : timestamp >= time;
+    }
+
+    /**
+     * Returns the first timestamp of a block
+     * @param block the index of the block
+     * @return the timestamp
+     */
+    private long blockStart(int block) {
+        return block == blocks ? pending[0] : starts[block];
+    }
+
+    /**
+     * Encodes the full pending block and adds it to the sealed blocks
+     */
+    private void seal() {
+
+        if(blocks == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * blocks);
+            widths = Arrays.copyOf(widths, 2 * blocks);
+            offsets = Arrays.copyOf(offsets, 2 * blocks);
+        }
+
+        int width = width(pending, BLOCK_SIZE);
+        int blockWords = wordsFor(BLOCK_SIZE, width);
+
+        if(wordCount + blockWords > words.length) {
+            words = Arrays.copyOf(words, Math.max(2 * words.length, wordCount + blockWords));
+        }
+
+        starts[blocks] = pending[0];
+        widths[blocks] = (byte) width;
+        offsets[blocks] = wordCount;
+
+        pack(pending, BLOCK_SIZE, width, words, wordCount);
+
+        wordCount += blockWords;
+        blocks++;
+    }
+
+    /**
+     * Writes the column, the block being filled included
+     * @param out the stream to be written to
+     * @throws IOException if the column couldn't be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+
+        out.writeInt(size);
+
+        for(int block = 0; block < blocks; block++) {
+
+            out.writeLong(starts[block]);
+            out.writeByte(widths[block]);
+
+            for(int word = offsets[block]; word < offsets[block] + wordsFor(BLOCK_SIZE, widths[block]); word++) {
+                out.writeLong(words[word]);
+            }
+        }
+
+        int count = size & (BLOCK_SIZE - 1);
+
+        if(count > 0) {
+
+            int width = width(pending, count);
+            long[] packed = new long[wordsFor(count, width)];
+            pack(pending, count, width, packed, 0);
+
+            out.writeLong(pending[0]);
+            out.writeByte(width);
+
+            for(long word : packed) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Reads the timestamps of a column written by write, decoding each block straight into the result
+     * @param in the buffer to be read from, positioned at the column
+     * @return the timestamps
+     */
+    public static long[] readTimestamps(ByteBuffer in) {
+
+        long[] timestamps = new long[in.getInt()];
+        long[] packed = new long[wordsFor(BLOCK_SIZE, 64)];
+
+        for(int start = 0; start < timestamps.length; start += BLOCK_SIZE) {
+
+            int count = Math.min(BLOCK_SIZE, timestamps.length - start);
+            timestamps[start] = in.getLong();
+            int width = in.get();
+
+            for(int word = 0; word < wordsFor(count, width); word++) {
+                packed[word] = in.getLong();
+            }
+
+            unpack(packed, 0, count, width, timestamps, start);
+        }
+
+        return timestamps;
+    }
+
+    /**
+     * Finds the bits needed by the largest zigzag encoded difference between consecutive timestamps
+     * @param timestamps the timestamps
+     * @param count the number of timestamps
+     * @return the number of bits, 0 if every timestamp is the same
+     */
+    private static int width(long[] timestamps, int count) {
+
+        long bits = 0;
+
+        for(int index = 1; index < count; index++) {
+            bits |= zigzag(timestamps[index] - timestamps[index - 1]);
+        }
+
+        return 64 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * Returns the number of words the differences of a block take
+     * @param count the number of timestamps in the block
+     * @param width the bits taken by each difference
+     * @return the number of words
+     */
+    private static int wordsFor(int count, int width) {
+        return (int) (((long) (count - 1) * width + 63) >>> 6);
+    }
+
+    /**
+     * Packs the differences between consecutive timestamps
+     * @param timestamps the timestamps
+     * @param count the number of timestamps
+     * @param width the bits taken by each difference
+     * @param words where the differences are packed to
+     * @param offset the word the differences start at
+     */
+    private static void pack(long[] timestamps, int count, int width, long[] words, int offset) {
+
+        // Every timestamp is the same, so there's nothing to pack
+        if(width == 0) {
+            return;
+        }
+
+        long bit = (long) offset << 6;
+
+        for(int index = 1; index < count; index++, bit += width) {
+
+            long zigzag = zigzag(timestamps[index] - timestamps[index - 1]);
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+
+            words[word] |= zigzag << shift;
+
+            if(shift + width > 64) {
+                words[word + 1] |= zigzag >>> (64 - shift);
+            }
+        }
+    }
+
+    /**
+     * Unpacks differences packed by pack onto the first timestamp
+     * @param words the packed differences
+     * @param offset the word the differences start at
+     * @param count the number of timestamps
+     * @param width the bits taken by each difference
+     * @param timestamps where the timestamps are decoded to, holding the first one already
+     * @param first the position of the first timestamp, the rest are decoded after it
+     */
+    private static void unpack(long[] words, int offset, int count, int width, long[] timestamps, int first) {
+
+        // Every timestamp is the same, so no words were packed
+        if(width == 0) {
+            Arrays.fill(timestamps, first + 1, first + count, timestamps[first]);
+            return;
+        }
+
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        long bit = (long) offset << 6;
+
+        for(int index = first + 1; index < first + count; index++, bit += width) {
+
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long packed = words[word] >>> shift;
+
+            if(shift + width > 64) {
+                packed |= words[word + 1] << (64 - shift);
+            }
+
+            long zigzag = packed & mask;
+            timestamps[index] = timestamps[index - 1] + ((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+    }
+
+    /**
+     * Maps a signed difference to an unsigned one, so small differences of either sign take few bits
+     * @param difference the difference
+     * @return the zigzag encoded difference
+     */
+    private static long zigzag(long difference) {
+        return (difference << 1) ^ (difference >> 63);
+    }
+
+    /**
+     * The timestamps of a decoded block
+     */
+    private static class DecodedBlock {
+
+        private final int block;
+        private final long[] timestamps;
+
+        private DecodedBlock(int block, long[] timestamps) {
+            this.block = block;
+            this.timestamps = timestamps;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Bounded least recently used cache of spam verdicts that only depend on the message content.
+ * Entries are spread over independently locked segments by content hash so that parallel
+ * spam detection doesn't contend on a single lock
+ */
+public class VerdictCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache holding at most the given number of verdicts
+     * @param capacity the maximum number of verdicts kept
+     */
+    public VerdictCache(int capacity) {
+
+        if(capacity < SEGMENTS) {
+            throw new IllegalArgumentException("capacity must be at least " + SEGMENTS);
+        }
+
+        this.capacity = capacity;
+
+        for(int index = 0; index < SEGMENTS; index++) {
+            segments[index] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /**
+     * Returns the cached verdict for the content, evaluating and caching it if it isn't known yet
+     * @param content the message content
+     * @param verdict the context-free test the content is evaluated with
+     * @return the verdict for the content
+     */
+    public boolean test(String content, Predicate<String> verdict) {
+
+        int hash = content.hashCode();
+        Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        Boolean cached;
+
+        synchronized(segment) {
+            cached = segment.get(content);
+        }
+
+        if(cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+
+        // Evaluated outside of the lock, racing threads compute the same value
+        boolean result = verdict.test(content);
+
+        synchronized(segment) {
+            segment.put(content, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Calculates the share of lookups answered from the cache
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Counts the verdicts currently cached
+     * @return the number of cached verdicts
+     */
+    public int size() {
+
+        int size = 0;
+
+        for(Segment segment : segments) {
+
+            synchronized(segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /*
+     * Getters
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Part of the cache that evicts its least recently used verdict once full
+     */
+    private static class Segment extends LinkedHashMap<String, Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+}